@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope.jvm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * A {@link Context} for running {@link com.peel.appscope.AppScope} off-Android. Each prefs file is
+ * a {@link FileSharedPreferences} in the specified directory:
+ * <pre>
+ * AppScope.init(new FileContext(new File("/var/lib/myapp")), gson);
+ * </pre>
+ *
+ * @author Inderjeet Singh
+ */
+public final class FileContext extends Context {
+    private final File dir;
+    private final Map<String, FileSharedPreferences> prefs = new HashMap<>(); // guarded by this
+
+    public FileContext(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @throws IllegalStateException if the existing prefs file could not be read
+     */
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        FileSharedPreferences result = prefs.get(name);
+        if (result == null) {
+            try {
+                result = new FileSharedPreferences(new File(dir, name));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read prefs " + name, e);
+            }
+            prefs.put(name, result);
+        }
+        return result;
+    }
+
+    /** Writes the changes of all the prefs that were applied but not written yet. Call this before exiting. */
+    public void flush() throws IOException {
+        Map<String, FileSharedPreferences> copy;
+        synchronized (this) {
+            copy = new HashMap<>(prefs);
+        }
+        for (FileSharedPreferences p : copy.values()) p.flush();
+    }
+}
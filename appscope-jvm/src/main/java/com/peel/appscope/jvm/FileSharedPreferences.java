@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope.jvm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.SharedPreferences;
+
+/**
+ * A thread-safe {@link SharedPreferences} backed by a file, for running
+ * {@link com.peel.appscope.AppScope} off-Android (for example, on backend servers or in simulation
+ * jobs). All values are kept in memory, and each write replaces the whole file atomically.
+ * {@link Editor#commit()} writes the file before it returns. {@link Editor#apply()} changes the
+ * values in memory, and a background thread writes the file. Applies made before that write
+ * starts are written together. Call {@link #flush()} before exiting so that no applied change is lost.
+ *
+ * @author Inderjeet Singh
+ */
+public final class FileSharedPreferences implements SharedPreferences {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FORMAT_VERSION = 1;
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_FLOAT = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_STRING_SET = 5;
+
+    /** Writes the applied changes of all the instances, one file at a time */
+    private static final Executor writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileSharedPreferences-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final Map<String, Object> map; // guarded by this
+    private long generation; // guarded by this, incremented on every change of the map
+    private boolean writeScheduled; // guarded by this
+    private final Object writeLock = new Object();
+    private long writtenGeneration; // guarded by writeLock
+    private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param file the file to store the preferences in. Its contents are loaded if it exists.
+     * @throws IOException if the existing file could not be read
+     */
+    public FileSharedPreferences(File file) throws IOException {
+        this.file = file;
+        this.map = file.exists() ? read(file) : new HashMap<String, Object>();
+    }
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<>(map);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return get(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return get(key, defValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> T get(String key, T defValue) {
+        T value = (T) map.get(key); // throws ClassCastException on type mismatch, just like Android
+        return value == null ? defValue : value;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new FileEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private final class FileEditor implements Editor {
+        private final Object removed = new Object(); // marks a pending removal
+        private final Map<String, Object> changes = new HashMap<>(); // guarded by this
+        private boolean clear;
+
+        @Override public Editor putString(String key, String value) {
+            return change(key, value);
+        }
+        @Override public Editor putStringSet(String key, Set<String> values) {
+            return change(key, values == null ? null : Collections.unmodifiableSet(new HashSet<>(values)));
+        }
+        @Override public Editor putInt(String key, int value) {
+            return change(key, value);
+        }
+        @Override public Editor putLong(String key, long value) {
+            return change(key, value);
+        }
+        @Override public Editor putFloat(String key, float value) {
+            return change(key, value);
+        }
+        @Override public Editor putBoolean(String key, boolean value) {
+            return change(key, value);
+        }
+        @Override public Editor remove(String key) {
+            return change(key, null);
+        }
+        @Override public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+        private synchronized Editor change(String key, Object value) {
+            changes.put(key, value == null ? removed : value);
+            return this;
+        }
+
+        @Override public boolean commit() {
+            applyChanges(false);
+            try {
+                flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override public void apply() {
+            if (applyChanges(true)) {
+                writer.execute(new Runnable() {
+                    @Override public void run() {
+                        synchronized (FileSharedPreferences.this) {
+                            writeScheduled = false; // applies from now on need another write
+                        }
+                        try {
+                            flush();
+                        } catch (IOException ignored) {
+                            // like on Android, apply() doesn't report failures. The values stay in memory.
+                        }
+                    }
+                });
+            }
+        }
+
+        /** @return whether a write needs to be scheduled */
+        private boolean applyChanges(boolean scheduleWrite) {
+            boolean schedule = false;
+            Set<String> changedKeys = new LinkedHashSet<>();
+            synchronized (FileSharedPreferences.this) {
+                synchronized (this) {
+                    if (clear) {
+                        changedKeys.addAll(map.keySet());
+                        map.clear();
+                        clear = false;
+                    }
+                    for (Map.Entry<String, Object> change : changes.entrySet()) {
+                        changedKeys.add(change.getKey());
+                        if (change.getValue() == removed) {
+                            map.remove(change.getKey());
+                        } else {
+                            map.put(change.getKey(), change.getValue());
+                        }
+                    }
+                    changes.clear();
+                }
+                ++generation;
+                // Checked along with the changes, so that a scheduled write that already took its
+                // snapshot can't miss them
+                if (scheduleWrite && !writeScheduled) schedule = writeScheduled = true;
+            }
+            for (String key : changedKeys) {
+                for (OnSharedPreferenceChangeListener listener : listeners) {
+                    listener.onSharedPreferenceChanged(FileSharedPreferences.this, key);
+                }
+            }
+            return schedule;
+        }
+    }
+
+    /**
+     * Writes the changes that were applied but not written yet. The file is written outside the
+     * lock of the values, so reads and writes of the values don't wait for the disk.
+     */
+    public void flush() throws IOException {
+        Map<String, Object> snapshot;
+        long snapshotGeneration;
+        synchronized (this) {
+            snapshot = new HashMap<>(map);
+            snapshotGeneration = generation;
+        }
+        synchronized (writeLock) {
+            if (snapshotGeneration <= writtenGeneration) return; // a newer snapshot is already written
+            write(file, snapshot);
+            writtenGeneration = snapshotGeneration;
+        }
+    }
+
+    private static Map<String, Object> read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) throw new IOException("Unsupported format version " + version + " in " + file);
+            int count = in.readInt();
+            Map<String, Object> map = new HashMap<>(count * 2);
+            for (int i = 0; i < count; ++i) {
+                String key = readString(in);
+                byte type = in.readByte();
+                switch (type) {
+                case TYPE_STRING: map.put(key, readString(in)); break;
+                case TYPE_INT: map.put(key, in.readInt()); break;
+                case TYPE_LONG: map.put(key, in.readLong()); break;
+                case TYPE_FLOAT: map.put(key, in.readFloat()); break;
+                case TYPE_BOOLEAN: map.put(key, in.readBoolean()); break;
+                case TYPE_STRING_SET:
+                    int size = in.readInt();
+                    Set<String> set = new HashSet<>(size * 2);
+                    for (int j = 0; j < size; ++j) set.add(readString(in));
+                    map.put(key, Collections.unmodifiableSet(set));
+                    break;
+                default: throw new IOException("Unknown value type " + type + " in " + file);
+                }
+            }
+            return map;
+        } finally {
+            in.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void write(File file, Map<String, Object> map) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(map.size());
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof String) {
+                    out.writeByte(TYPE_STRING);
+                    writeString(out, (String) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong((Long) value);
+                } else if (value instanceof Float) {
+                    out.writeByte(TYPE_FLOAT);
+                    out.writeFloat((Float) value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else {
+                    Set<String> set = (Set<String>) value;
+                    out.writeByte(TYPE_STRING_SET);
+                    out.writeInt(set.size());
+                    for (String s : set) writeString(out, s);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // renameTo doesn't replace an existing file on some platforms
+            if (!file.delete() || !tmp.renameTo(file)) throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    // DataOutput.writeUTF() is limited to 64K, which serialized values can exceed
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
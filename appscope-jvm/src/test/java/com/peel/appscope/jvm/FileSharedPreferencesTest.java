@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.peel.appscope.AppScope;
+import com.peel.prefs.TypedKey;
+
+import android.content.SharedPreferences;
+import android.util.LruCache;
+
+/**
+ * Unit tests for {@link FileSharedPreferences}, {@link FileContext} and the off-Android {@link LruCache}
+ *
+ * @author Inderjeet Singh
+ */
+public class FileSharedPreferencesTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("appscope", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Test
+    public void testValuesSurviveReload() throws Exception {
+        File file = new File(dir, "prefs");
+        SharedPreferences prefs = new FileSharedPreferences(file);
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b"));
+        prefs.edit().putString("s", "value").putInt("i", 1).putLong("l", 2L).putFloat("f", 3f)
+            .putBoolean("b", true).putStringSet("set", set).commit();
+        prefs.edit().remove("i").commit();
+
+        prefs = new FileSharedPreferences(file);
+        assertEquals("value", prefs.getString("s", null));
+        assertFalse(prefs.contains("i"));
+        assertEquals(2L, prefs.getLong("l", 0));
+        assertEquals(3f, prefs.getFloat("f", 0), 0);
+        assertTrue(prefs.getBoolean("b", false));
+        assertEquals(set, prefs.getStringSet("set", null));
+
+        prefs.edit().clear().putString("s", "new").commit();
+        prefs = new FileSharedPreferences(file);
+        assertEquals(1, prefs.getAll().size());
+        assertEquals("new", prefs.getString("s", null));
+    }
+
+    @Test
+    public void testApplyWritesInBackground() throws Exception {
+        File file = new File(dir, "prefs");
+        FileSharedPreferences prefs = new FileSharedPreferences(file);
+        for (int i = 0; i < 100; ++i) prefs.edit().putInt("count", i).apply();
+        assertEquals(99, prefs.getInt("count", 0)); // visible right away
+        for (int i = 0; i < 100 && new FileSharedPreferences(file).getInt("count", 0) != 99; ++i) {
+            Thread.sleep(50);
+        }
+        assertEquals(99, new FileSharedPreferences(file).getInt("count", 0));
+    }
+
+    @Test
+    public void testFlushWritesAppliedChanges() throws Exception {
+        File file = new File(dir, "prefs");
+        FileSharedPreferences prefs = new FileSharedPreferences(file);
+        prefs.edit().putString("s", "value").apply();
+        prefs.flush();
+        assertEquals("value", new FileSharedPreferences(file).getString("s", null));
+    }
+
+    @Test
+    public void testAppScopeOffAndroid() throws Exception {
+        TypedKey<String> key = new TypedKey<>("country", String.class);
+        FileContext context = new FileContext(dir);
+        AppScope.TestAccess.init(context, new Gson());
+        AppScope.put(key, "US");
+        context.flush();
+        AppScope.init(new FileContext(dir), new Gson()); // simulate restart
+        assertEquals("US", AppScope.get(key));
+    }
+
+    @Test
+    public void testLruCacheEvictsLeastRecentlyUsed() {
+        LruCache<String, String> cache = new LruCache<>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.maxSize());
+        assertEquals(1, cache.evictionCount());
+    }
+}
@@ -0,0 +1,1038 @@
+/*
+ * Copyright (C) 2017 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.peel.prefs.Prefs;
+import com.peel.prefs.TypedKey;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.util.LruCache;
+
+/**
+ * This class provides services to hold data in application scope. It is used to pass global
+ * information around across fragments without making everything parcelable. This is a singleton.
+ *
+ * @author Inderjeet Singh
+ */
+public final class AppScope {
+    public static final String SURVIVE_RESET = "surviveReset";
+    /** The addition/removal of these keys will not be reported back in the listener */
+    public static final String NON_PERSISTENT = "nonPersistent";
+    /**
+     * Keys tagged with both {@link #NON_PERSISTENT} and this tag are held in memory as compressed JSON
+     * instead of as object graphs. Only the most recently read values are kept decoded.
+     */
+    public static final String COMPACT = "compact";
+    /**
+     * The values of {@link #NON_PERSISTENT} keys and keys with providers that carry this tag are
+     * saved by {@link #saveSnapshot(File, int)}, and restored after a process restart by
+     * {@link #restoreSnapshot(File, int, long)}.
+     */
+    public static final String WARM_RESTART = "warmRestart";
+
+    static final String DEFAULT_USER_PREFS_FILE = "user_prefs";
+    static final String DEFAULT_APP_PREFS_FILE = "app_prefs";
+
+    @SuppressLint("StaticFieldLeak")
+    private static Prefs userPrefs;
+    @SuppressLint("StaticFieldLeak")
+    private static Prefs appPrefs;
+    private static final Map<TypedKey<?>, Object> nonPersistentPrefs = new ConcurrentHashMap<>();
+    private static final Set<TypedKeyWithProvider<?>> keysWithProviders = new CopyOnWriteArraySet<>();
+    /**
+     * Plain (not {@link AsyncInstanceProvider}) providers whose value was created or set through
+     * AppScope, so that snapshots can tell them apart from providers that have no value yet.
+     */
+    private static final Map<InstanceProvider<?>, Boolean> providersWithValues = new ConcurrentHashMap<>();
+    /**
+     * The immutable values last written to prefs for keys that are cacheable in memory, used to skip
+     * redundant writes. Sized like the prefs cache, so it holds on to about the same values that prefs does.
+     */
+    private static volatile LruCache<TypedKey<?>, Object> persistedValues = new LruCache<>(20);
+    private static final AtomicLong skippedWrites = new AtomicLong();
+    /** Decoded instances of the most recently read {@link #COMPACT} values */
+    private static final LruCache<TypedKey<?>, Object> hotCompactValues = new LruCache<>(4);
+    /**
+     * Keys known to be absent from all the stores, mapped to what {@link #get(TypedKey)} returns for
+     * them ({@code NULL_VALUE}, or a default like {@code false} for booleans), or to
+     * {@code UNKNOWN_VALUE} if only {@link #contains(TypedKey)} has looked the key up. Read on every
+     * lookup, so it is lock-free. Apps may look up keys with dynamic names, so it is cleared once it
+     * holds {@code MAX_ABSENT_KEYS} keys.
+     */
+    private static final ConcurrentMap<TypedKey<?>, Object> absentKeys = new ConcurrentHashMap<>();
+    private static final int MAX_ABSENT_KEYS = 256;
+    private static final Object NULL_VALUE = new Object();
+    private static final Object UNKNOWN_VALUE = new Object();
+    /** Incremented on every write to the stores, to detect writes racing with a lookup that missed */
+    private static final AtomicLong storeWrites = new AtomicLong();
+    /** Values of {@link #WARM_RESTART} keys by name, restored from a snapshot but not accessed yet */
+    private static final Map<String, Snapshot.Entry> pendingSnapshot = new ConcurrentHashMap<>();
+    /** Source of version stamps. Every change of a key gets a new, higher stamp. */
+    private static final AtomicLong versionClock = new AtomicLong();
+    /**
+     * Versions of the keys with values. Changed only under the lock of the key. Entries are dropped
+     * when a key is removed or reset, so this holds no more keys than the stores do.
+     */
+    private static final ConcurrentMap<TypedKey<?>, AtomicLong> keyVersions = new ConcurrentHashMap<>();
+    /** Stamp of the last reset, which changed all the keys without {@link #SURVIVE_RESET} */
+    private static volatile long resetVersion;
+    /** Stamp of the last reset or init that changed all the keys */
+    private static volatile long fullResetVersion;
+    private static final Object[] keyLocks = new Object[64]; // must be a power of 2
+    static {
+        for (int i = 0; i < keyLocks.length; ++i) keyLocks[i] = new Object();
+    }
+    /** Per lock stripe, the stamp of the last removal of a key of the stripe, whose version entry was dropped */
+    private static final AtomicLongArray removedVersions = new AtomicLongArray(keyLocks.length);
+    private static Gson gson;
+    private static volatile Executor executor;
+    private static volatile KeyCatalog catalog;
+    private static volatile FrozenConfig frozenConfig;
+    private static final Object frozenConfigLock = new Object();
+    /** Set while freezeConfig() reads the prefs, so that writes racing with it update the frozen copy */
+    private static volatile boolean freezing;
+    /** The frozen keys written by the refreshConfig() of the current thread, with their values, to publish at its end */
+    private static final ThreadLocal<Map<TypedKey<?>, Object>> frozenBatch = new ThreadLocal<>();
+
+    public static void init(Context context, Gson gson) {
+        init(context, gson, DEFAULT_USER_PREFS_FILE, DEFAULT_APP_PREFS_FILE, 20);
+    }
+
+    public static void init(Context context, Gson gson,
+            String persistentPrefsFileName, String configPrefsFileName, int cacheSize) {
+        AppScope.gson = gson;
+        userPrefs = new Prefs(context, gson, persistentPrefsFileName, cacheSize);
+        appPrefs = new Prefs(context, gson, configPrefsFileName, cacheSize);
+        persistedValues = new LruCache<>(cacheSize);
+        storeWrites.incrementAndGet();
+        absentKeys.clear();
+        frozenConfig = null;
+        fullResetVersion = resetVersion = versionClock.incrementAndGet();
+        keyVersions.clear(); // all older than the reset stamp
+    }
+
+    public static void addListener(Prefs.EventListener listener) {
+        userPrefs.addListener(listener);
+        appPrefs.addListener(listener);
+        // non persistent items can't be listened to
+    }
+
+    public static void removeListener(Prefs.EventListener listener) {
+        userPrefs.removeListener(listener);
+        appPrefs.removeListener(listener);
+    }
+
+    public static Context context() {
+        return userPrefs.context();
+    }
+
+    public static<T> void register(TypedKeyWithProvider<T> key) {
+        keysWithProviders.add(key);
+    }
+
+    /**
+     * Registers the catalog of the app's keys, which {@link #warmUp()}, {@link #freezeConfig()} and
+     * the export and import work on. Any keys with providers in the catalog are registered as well.
+     * Replaces the previously registered catalog.
+     */
+    public static void register(KeyCatalog catalog) {
+        for (TypedKey<?> key : catalog.keys()) {
+            if (key instanceof TypedKeyWithProvider) register((TypedKeyWithProvider<?>) key);
+        }
+        AppScope.catalog = catalog;
+    }
+
+    /**
+     * Resolves and caches the Gson type adapters of the registered {@link KeyCatalog} keys, so that
+     * the first read or write of a key doesn't pay for it.
+     *
+     * @return the time (in nanoseconds) taken to resolve the adapter for each type
+     */
+    public static Map<Type, Long> warmUp() {
+        KeyCatalog c = catalog;
+        return c == null ? new LinkedHashMap<Type, Long>() : warmUp(c.keys());
+    }
+
+    /** Same as {@link #warmUp()}, but for the specified keys */
+    public static Map<Type, Long> warmUp(TypedKey<?>... keys) {
+        return warmUp(Arrays.asList(keys));
+    }
+
+    private static Map<Type, Long> warmUp(List<TypedKey<?>> keys) {
+        Map<Type, Long> timings = new LinkedHashMap<>();
+        for (TypedKey<?> key : keys) {
+            Type type = key.getTypeOfValue();
+            if (timings.containsKey(type)) continue;
+            long start = System.nanoTime();
+            gson.getAdapter(TypeToken.get(type)); // Gson caches the adapter
+            timings.put(type, System.nanoTime() - start);
+        }
+        return timings;
+    }
+
+    /** Runs {@link #warmUp()} on the background executor */
+    public static Future<Map<Type, Long>> warmUpAsync() {
+        FutureTask<Map<Type, Long>> task = new FutureTask<>(new Callable<Map<Type, Long>>() {
+            @Override public Map<Type, Long> call() {
+                return warmUp();
+            }
+        });
+        executor().execute(task);
+        return task;
+    }
+
+    /** Deprecated. Use {@code #put(TypedKey, Object)} instead. */
+    @Deprecated
+    public static <T> void bind(TypedKey<T> key, T value) {
+        put(key, value);
+    }
+
+    /**
+     * Binds the value to the key. If the key is already bound to an equal value, the write is skipped:
+     * no serialization to disk happens, and the listeners are not notified.
+     * See {@link #skippedWriteCount()}.
+     * <p>
+     * For persistent keys, only immutable values (strings, boxed primitives and enums) of keys that
+     * are cacheable in memory are checked, and only against the value that was last written with
+     * {@code put}, if it is still cached. Other values are always written, since the caller may have
+     * mutated the instance that was put before. Changes made to the underlying SharedPreferences
+     * without going through AppScope aren't seen, so a {@code put} of the value last put before such
+     * a change is skipped. Keys with providers are never checked, since that could create the
+     * provider's value.
+     */
+    public static <T> void put(TypedKey<T> key, T value) {
+        synchronized (lockFor(key)) {
+            putLocked(key, value);
+        }
+    }
+
+    private static <T> void putLocked(TypedKey<T> key, T value) {
+        if (!pendingSnapshot.isEmpty()) pendingSnapshot.remove(key.getName()); // a live value wins over the snapshot
+        Tier tier = Tier.of(key);
+        if (tier == Tier.PROVIDER) {
+            TypedKeyWithProvider<T> key1 = (TypedKeyWithProvider<T>) key;
+            InstanceProvider<T> provider = key1.getProvider();
+            if (provider == null) throw new IllegalArgumentException(key + " must have a non-null provider!");
+            if (!keysWithProviders.contains(key1)) keysWithProviders.add(key1);
+            provider.update(value);
+            providerValueChanged(provider, value);
+        } else if (tier == Tier.NON_PERSISTENT) {
+            Object stored = key.containsTag(COMPACT) && value != null
+                    ? CompactValue.encode(gson, value, key.getTypeOfValue()) : value;
+            if (isUnchanged(nonPersistentPrefs.get(key), stored)) {
+                skippedWrites.incrementAndGet();
+                return;
+            }
+            nonPersistentPrefs.put(key, stored);
+            synchronized (hotCompactValues) {
+                hotCompactValues.remove(key);
+            }
+        } else {
+            Prefs prefs = tier == Tier.APP ? appPrefs : userPrefs;
+            LruCache<TypedKey<?>, Object> persisted = persistedValues;
+            if (value == null || !key.isCacheableInMemory() || !isImmutable(value)) {
+                persisted.remove(key);
+            } else if (isUnchanged(persisted.put(key, value), value)) {
+                skippedWrites.incrementAndGet();
+                return;
+            }
+            prefs.put(key, value);
+            if (tier == Tier.APP && mayBeFrozen(key)) {
+                // the version changes before the frozen copy, for refreshConfig() to detect racing writes
+                storeWritten(key);
+                updateFrozenConfig(key, value);
+                return;
+            }
+        }
+        storeWritten(key);
+    }
+
+    public static <T> void put(String keyName, Class<T> keyClass, T value) {
+        TypedKey<T> key = new TypedKey<T>(keyName, keyClass);
+        put(key, value);
+    }
+
+    /**
+     * @return the number of {@code put} calls that were skipped since the key was already bound to
+     *   an equal value.
+     */
+    public static long skippedWriteCount() {
+        return skippedWrites.get();
+    }
+
+    private static void storeWritten(TypedKey<?> key) {
+        storeWrites.incrementAndGet();
+        absentKeys.remove(key);
+        AtomicLong version = keyVersions.get(key);
+        if (version == null) {
+            AtomicLong newVersion = new AtomicLong();
+            version = keyVersions.putIfAbsent(key, newVersion);
+            if (version == null) version = newVersion;
+        }
+        version.set(versionClock.incrementAndGet());
+    }
+
+    /** @return the number of keys whose versions are tracked individually */
+    static int versionedKeyCount() {
+        return keyVersions.size();
+    }
+
+    /** Same as {@link #storeWritten(TypedKey)}, but drops the version entry of the removed key */
+    private static void storeRemoved(TypedKey<?> key) {
+        storeWrites.incrementAndGet();
+        absentKeys.remove(key);
+        // The stripe's stamp is newer than the entry, so the version doesn't go back when the entry is dropped
+        removedVersions.set(stripeOf(key), versionClock.incrementAndGet());
+        keyVersions.remove(key);
+    }
+
+    /**
+     * Returns the version of the value of the key. The version increases every time the value is
+     * changed through AppScope: {@code put}, {@code remove}, the atomic operations, {@link #reset()},
+     * and so on. A {@code put} of an unchanged value doesn't change the version. Callers can cache
+     * a value along with its version, and cheaply revalidate it later by comparing versions.
+     * <p>
+     * The version may also increase when the value didn't change, such as when another key is
+     * removed, since removed keys aren't tracked individually. That only costs a revalidation.
+     */
+    public static long version(TypedKey<?> key) {
+        AtomicLong version = keyVersions.get(key);
+        long reset = key.containsTag(SURVIVE_RESET) ? fullResetVersion : resetVersion;
+        long floor = Math.max(reset, removedVersions.get(stripeOf(key)));
+        return version == null ? floor : Math.max(version.get(), floor);
+    }
+
+    /** @param writesBeforeLookup the count of writes, read before the negative cache and the stores were */
+    private static void markAbsent(TypedKey<?> key, Object value, long writesBeforeLookup) {
+        if (absentKeys.size() >= MAX_ABSENT_KEYS) absentKeys.clear();
+        absentKeys.put(key, value);
+        // A write that raced with the lookup may have added the key, so don't trust the lookup. A write
+        // that increments the count after this check removes the key from the cache itself.
+        if (storeWrites.get() != writesBeforeLookup) absentKeys.remove(key, value);
+    }
+
+    private static void providerValueChanged(InstanceProvider<?> provider, Object value) {
+        if (provider instanceof AsyncInstanceProvider) return; // tracks its own state
+        if (value == null) {
+            providersWithValues.remove(provider);
+        } else {
+            providersWithValues.put(provider, Boolean.TRUE);
+        }
+    }
+
+    private static boolean hasValue(InstanceProvider<?> provider) {
+        return provider instanceof AsyncInstanceProvider
+                ? ((AsyncInstanceProvider<?>) provider).isLoaded() : providersWithValues.containsKey(provider);
+    }
+
+    private static boolean isUnchanged(Object current, Object value) {
+        // The same mutable instance may have been changed since it was put, so it must be written again
+        if (current == value && !isImmutable(value)) return false;
+        return current != null && current.equals(value);
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Boolean || value instanceof Double || value instanceof Float
+                || value instanceof Short || value instanceof Byte || value instanceof Character
+                || value instanceof Enum;
+    }
+
+    /** Use {@code #contains(TypedKey) instead. */
+    @Deprecated
+    public static <T> boolean has(TypedKey<T> key) {
+        return contains(key);
+    }
+
+    public static <T> boolean contains(TypedKey<T> key) {
+        if (!pendingSnapshot.isEmpty()) restoreFromSnapshot(key);
+        FrozenConfig frozen = frozenConfig;
+        int slot = frozen == null ? -1 : frozen.slotOf(key);
+        if (slot >= 0) return frozen.isPresent(slot);
+        if (key instanceof TypedKeyWithProvider) return true;
+        long writes = storeWrites.get();
+        if (absentKeys.get(key) != null) return false;
+        if (containsInTier(Tier.of(key), key)) return true; // the store selected by the key's tags first
+        if (nonPersistentPrefs.containsKey(key) || userPrefs.contains(key) || appPrefs.contains(key)) return true;
+        markAbsent(key, UNKNOWN_VALUE, writes);
+        return false;
+    }
+
+    public static <T> boolean contains(String keyName, Class<T> keyClass) {
+        TypedKey<T> key = new TypedKey<T>(keyName, keyClass);
+        return has(key);
+    }
+
+    private static boolean containsInTier(Tier tier, TypedKey<?> key) {
+        switch (tier) {
+        case PROVIDER: return true;
+        case NON_PERSISTENT: return nonPersistentPrefs.containsKey(key);
+        case APP: return appPrefs.contains(key);
+        default: return userPrefs.contains(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T get(TypedKey<T> key) {
+        if (!pendingSnapshot.isEmpty()) restoreFromSnapshot(key);
+        Object frozen = getFrozen(key);
+        if (frozen != FrozenConfig.NOT_FROZEN) return (T) frozen;
+        boolean hasProvider = key instanceof TypedKeyWithProvider;
+        long writes = storeWrites.get(); // read before the negative cache, so that racing writes are detected
+        Object absent = hasProvider ? null : absentKeys.get(key);
+        if (absent == NULL_VALUE) return null;
+        if (absent != null && absent != UNKNOWN_VALUE) return (T) absent;
+        if (absent == null) { // persistent keys look in the store selected by their tags first
+            Tier tier = Tier.of(key);
+            if (tier == Tier.APP) {
+                if (appPrefs.contains(key)) return appPrefs.get(key);
+            } else if (tier == Tier.USER) {
+                if (userPrefs.contains(key)) return userPrefs.get(key);
+            }
+        }
+        T instance = null;
+        if (hasProvider) {
+            InstanceProvider<T> provider = ((TypedKeyWithProvider<T>) key).getProvider();
+            instance = provider.get();
+            if (instance != null && !providersWithValues.containsKey(provider)) providerValueChanged(provider, instance);
+        }
+        if (instance == null) {
+            instance = getNonPersistent(key);
+            if (instance == null) {
+                if (hasProvider) { // providers come before the negative cache
+                    absent = absentKeys.get(key);
+                    if (absent == NULL_VALUE) return null;
+                    if (absent != null && absent != UNKNOWN_VALUE) return (T) absent;
+                }
+                boolean inUserPrefs = userPrefs.contains(key);
+                if (inUserPrefs) instance = userPrefs.get(key); // boolean values get defaulted to false, we don't want that
+                if (instance == null) {
+                    instance = appPrefs.get(key);
+                    if (!inUserPrefs && (absent == UNKNOWN_VALUE || instance == null
+                            || (isDefaultValue(instance) && !appPrefs.contains(key)))) {
+                        markAbsent(key, instance == null ? NULL_VALUE : instance, writes);
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Freezes the current values of the {@link #SURVIVE_RESET} keys of the registered {@link KeyCatalog}.
+     * Reads of frozen keys are lock-free and never touch the prefs. Writes to a frozen key update the
+     * prefs and atomically publish a new frozen copy. To write a refreshed config, use
+     * {@link #refreshConfig(Map)}, which publishes all the refreshed values at once. Calling this again
+     * after the config was written some other way publishes them at once too. The frozen values are shared, so don't mutate them.
+     */
+    public static void freezeConfig() {
+        List<TypedKey<?>> keys = new ArrayList<>();
+        for (TypedKey<?> key : requireCatalog().keys()) {
+            if (Tier.of(key) == Tier.APP) keys.add(key);
+        }
+        freezeConfig(keys.toArray(new TypedKey<?>[keys.size()]));
+    }
+
+    /** Same as {@link #freezeConfig()}, but for the specified {@link #SURVIVE_RESET} keys */
+    public static void freezeConfig(TypedKey<?>... keys) {
+        for (TypedKey<?> key : keys) {
+            if (Tier.of(key) != Tier.APP) throw new IllegalArgumentException(key + " is not a persistent SURVIVE_RESET key");
+        }
+        KeyCatalog frozenKeys = new KeyCatalog(keys);
+        Object[] values = new Object[keys.length];
+        boolean[] present = new boolean[keys.length];
+        synchronized (frozenConfigLock) {
+            freezing = true;
+            try {
+                for (int i = 0; i < keys.length; ++i) {
+                    present[i] = appPrefs.contains(keys[i]);
+                    values[i] = appPrefs.get(keys[i]); // the default value, if absent
+                }
+                frozenConfig = new FrozenConfig(frozenKeys, values, present);
+            } finally {
+                freezing = false;
+            }
+        }
+    }
+
+    /** @return the frozen value of the key, or {@link FrozenConfig#NOT_FROZEN} */
+    private static Object getFrozen(TypedKey<?> key) {
+        FrozenConfig frozen = frozenConfig;
+        int slot = frozen == null ? -1 : frozen.slotOf(key);
+        return slot < 0 ? FrozenConfig.NOT_FROZEN : frozen.value(slot);
+    }
+
+    /**
+     * Called after the key is written to the prefs.
+     * @return false if the key can't be frozen, so the frozen copy needn't be locked and updated
+     */
+    private static boolean mayBeFrozen(TypedKey<?> key) {
+        if (freezing) return true;
+        FrozenConfig frozen = frozenConfig;
+        return frozen != null && frozen.slotOf(key.getName()) >= 0;
+    }
+
+    /**
+     * Publishes the new value of the frozen key with the same name as the key, if any.
+     * @param value the new value, or {@code null} if the key was removed
+     */
+    private static void updateFrozenConfig(TypedKey<?> key, Object value) {
+        Map<TypedKey<?>, Object> batch = frozenBatch.get();
+        if (batch != null) { // published once, at the end of refreshConfig()
+            batch.put(key, value);
+            return;
+        }
+        synchronized (frozenConfigLock) { // serialized with freezeConfig() so that no write is lost
+            FrozenConfig frozen = frozenConfig;
+            int slot = frozen == null ? -1 : frozen.slotOf(key.getName());
+            if (slot < 0) return;
+            FrozenConfig.Editor editor = frozen.edit();
+            setFrozenValue(editor, frozen.key(slot), slot, key, value);
+            frozenConfig = editor.build();
+        }
+    }
+
+    private static void setFrozenValue(FrozenConfig.Editor editor, TypedKey<?> frozenKey, int slot,
+            TypedKey<?> key, Object value) {
+        if (value != null && frozenKey.equals(key)) {
+            editor.set(slot, value, true);
+        } else { // removed, or written through a key of another type: reread it
+            editor.set(slot, appPrefs.get(frozenKey), appPrefs.contains(frozenKey));
+        }
+    }
+
+    /**
+     * Writes the refreshed values of config keys, like a {@code put} of each ({@code remove} for a
+     * {@code null} value), and then publishes the new values of the frozen keys among them at once.
+     * Readers of frozen keys see either none or all of the refreshed values, and the frozen copy is
+     * rebuilt only once instead of once per key. See {@link #freezeConfig()}.
+     * <p>
+     * The writes to the prefs are still separate and not atomic. A key that another thread writes
+     * while the refresh is running keeps the value of that write.
+     */
+    @SuppressWarnings("unchecked")
+    public static void refreshConfig(Map<? extends TypedKey<?>, ?> values) {
+        Map<TypedKey<?>, Object> batch = new LinkedHashMap<>();
+        Map<TypedKey<?>, Long> versions = new HashMap<>();
+        frozenBatch.set(batch);
+        try {
+            for (Map.Entry<? extends TypedKey<?>, ?> entry : values.entrySet()) {
+                TypedKey<Object> key = (TypedKey<Object>) entry.getKey();
+                synchronized (lockFor(key)) {
+                    if (entry.getValue() == null) {
+                        removeLocked(key);
+                    } else {
+                        putLocked(key, entry.getValue());
+                    }
+                    versions.put(key, version(key));
+                }
+            }
+        } finally {
+            frozenBatch.remove();
+        }
+        if (batch.isEmpty()) return;
+        synchronized (frozenConfigLock) {
+            FrozenConfig frozen = frozenConfig;
+            if (frozen == null) return;
+            FrozenConfig.Editor editor = frozen.edit();
+            for (Map.Entry<TypedKey<?>, Object> entry : batch.entrySet()) {
+                TypedKey<?> key = entry.getKey();
+                int slot = frozen.slotOf(key.getName());
+                if (slot < 0) continue;
+                // Possibly written again since, so the value of this refresh may be stale: reread it
+                Object value = version(key) == versions.get(key) ? entry.getValue() : null;
+                setFrozenValue(editor, frozen.key(slot), slot, key, value);
+            }
+            frozenConfig = editor.build();
+        }
+    }
+
+    /** The values that prefs return for absent keys of primitive types */
+    private static boolean isDefaultValue(Object value) {
+        return Boolean.FALSE.equals(value) || (value instanceof Number && ((Number) value).doubleValue() == 0);
+    }
+
+    /**
+     * Returns the value of the key without blocking the caller on an {@link AsyncInstanceProvider}.
+     * For all other keys, the returned future is already complete.
+     */
+    public static <T> Future<T> getAsync(TypedKey<T> key) {
+        if (!pendingSnapshot.isEmpty()) restoreFromSnapshot(key); // the snapshot saves a load
+        if (key instanceof TypedKeyWithProvider) {
+            InstanceProvider<T> provider = ((TypedKeyWithProvider<T>) key).getProvider();
+            if (provider instanceof AsyncInstanceProvider) {
+                return ((AsyncInstanceProvider<T>) provider).getAsync(executor());
+            }
+        }
+        return AsyncInstanceProvider.completed(get(key));
+    }
+
+    /** Starts loading the values of the keys that have an {@link AsyncInstanceProvider} in the background */
+    public static void prefetch(TypedKey<?>... keys) {
+        for (TypedKey<?> key : keys) {
+            if (!pendingSnapshot.isEmpty()) restoreFromSnapshot(key);
+            if (key instanceof TypedKeyWithProvider) {
+                InstanceProvider<?> provider = ((TypedKeyWithProvider<?>) key).getProvider();
+                if (provider instanceof AsyncInstanceProvider) {
+                    ((AsyncInstanceProvider<?>) provider).getAsync(executor());
+                }
+            }
+        }
+    }
+
+    /**
+     * Initializes the providers of the graph in parallel on the background executor, honoring their
+     * dependencies. Blocks until all of them are initialized.
+     *
+     * @return the time (in nanoseconds) taken by each provider to initialize
+     */
+    public static Map<TypedKey<?>, Long> initialize(ProviderGraph graph) throws InterruptedException {
+        return graph.initialize(executor());
+    }
+
+    /** Same as {@link #initialize(ProviderGraph)} but runs the providers on the specified executor */
+    public static Map<TypedKey<?>, Long> initialize(ProviderGraph graph, Executor executor) throws InterruptedException {
+        return graph.initialize(executor);
+    }
+
+    /** Sets the executor for background work. By default, a small pool of daemon threads is used. */
+    public static void setExecutor(Executor executor) {
+        AppScope.executor = executor;
+    }
+
+    static Executor executor() {
+        Executor result = executor;
+        if (result == null) {
+            synchronized (AppScope.class) {
+                result = executor;
+                if (result == null) executor = result = newDefaultExecutor();
+            }
+        }
+        return result;
+    }
+
+    private static ExecutorService newDefaultExecutor() {
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AppScope-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T getNonPersistent(TypedKey<T> key) {
+        Object stored = nonPersistentPrefs.get(key);
+        if (!(stored instanceof CompactValue)) return (T) stored;
+        T instance = (T) hotCompactValues.get(key);
+        if (instance == null) {
+            instance = ((CompactValue) stored).decode(gson, key.getTypeOfValue());
+            synchronized (hotCompactValues) {
+                // Only cache if the value wasn't replaced while we were decoding
+                if (nonPersistentPrefs.get(key) == stored) hotCompactValues.put(key, instance);
+            }
+        }
+        return instance;
+    }
+
+    public static <T> T get(String keyName, Class<T> keyClass) {
+        TypedKey<T> key = new TypedKey<T>(keyName, keyClass);
+        return get(key);
+    }
+
+    public static <T> T get(TypedKey<T> key, T defaultValue) {
+        return has(key) ? get(key) : defaultValue;
+    }
+
+    public static <T> T get(String keyName, Class<T> keyClass, T defaultValue) {
+        TypedKey<T> key = new TypedKey<T>(keyName, keyClass);
+        return get(key, defaultValue);
+    }
+
+    /**
+     * Removes a provider as well as any registered instances with this name
+     * @param <T> the type of the {@code TypedKey}
+     * @param key the key that was previously bound as an instance or a provider.
+     *  If the key was not bound previously, nothing is done
+     */
+    public static <T> void remove(TypedKey<T> key) {
+        synchronized (lockFor(key)) {
+            removeLocked(key);
+        }
+    }
+
+    private static <T> void removeLocked(TypedKey<T> key) {
+        if (!pendingSnapshot.isEmpty()) pendingSnapshot.remove(key.getName());
+        nonPersistentPrefs.remove(key);
+        hotCompactValues.remove(key);
+        persistedValues.remove(key);
+        userPrefs.remove(key);
+        appPrefs.remove(key);
+        keysWithProviders.remove(key);
+        storeRemoved(key);
+        if (mayBeFrozen(key)) updateFrozenConfig(key, null);
+    }
+
+    /**
+     * Atomically binds the key to the value created by the factory if the key has no value yet.
+     * The factory must not write other keys of AppScope.
+     * @return the current value, or the created value
+     */
+    public static <T> T computeIfAbsent(TypedKey<T> key, Factory<T> factory) {
+        T value = getIfPresent(key);
+        if (value != null) return value;
+        synchronized (lockFor(key)) {
+            value = getIfPresent(key);
+            if (value == null) {
+                value = factory.create();
+                setLocked(key, value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Atomically binds the key to {@code update} if it is currently bound to a value equal to {@code expect}.
+     * Use {@code null} to expect an absent value, or to remove the value.
+     * @return whether the value was updated
+     */
+    public static <T> boolean compareAndSet(TypedKey<T> key, T expect, T update) {
+        synchronized (lockFor(key)) {
+            T current = getIfPresent(key);
+            if (current == null ? expect != null : !current.equals(expect)) return false;
+            setLocked(key, update);
+            return true;
+        }
+    }
+
+    /**
+     * Atomically replaces the value of the key with the value returned by the updater. The updater
+     * receives {@code null} if the key has no value, and can return {@code null} to remove the value.
+     * It must not write other keys of AppScope.
+     * @return the previous value
+     */
+    public static <T> T getAndUpdate(TypedKey<T> key, Updater<T> updater) {
+        synchronized (lockFor(key)) {
+            T previous = getIfPresent(key);
+            setLocked(key, updater.update(previous));
+            return previous;
+        }
+    }
+
+    /**
+     * Same as {@link #getAndUpdate(TypedKey, Updater)}, but returns the updated value
+     */
+    public static <T> T updateAndGet(TypedKey<T> key, Updater<T> updater) {
+        synchronized (lockFor(key)) {
+            T updated = updater.update(getIfPresent(key));
+            setLocked(key, updated);
+            return updated;
+        }
+    }
+
+    /** Atomically increments the value of the key. An absent value is treated as zero. */
+    public static int increment(TypedKey<Integer> key) {
+        return addAndGet(key, 1);
+    }
+
+    /** Atomically adds delta to the value of the key. An absent value is treated as zero. */
+    public static int addAndGet(TypedKey<Integer> key, final int delta) {
+        return updateAndGet(key, new Updater<Integer>() {
+            @Override public Integer update(Integer current) {
+                return current == null ? delta : current + delta;
+            }
+        });
+    }
+
+    private static <T> T getIfPresent(TypedKey<T> key) {
+        return contains(key) ? get(key) : null;
+    }
+
+    private static <T> void setLocked(TypedKey<T> key, T value) {
+        if (value == null && !(key instanceof TypedKeyWithProvider)) {
+            removeLocked(key);
+        } else {
+            putLocked(key, value);
+        }
+    }
+
+    /**
+     * Independent keys rarely share a lock, so compound operations on them proceed in parallel.
+     * Writes take the lock as well so that they can't interleave with a compound operation.
+     */
+    private static Object lockFor(TypedKey<?> key) {
+        return keyLocks[stripeOf(key)];
+    }
+
+    private static int stripeOf(TypedKey<?> key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (keyLocks.length - 1);
+    }
+
+    /** Creates the value for {@link AppScope#computeIfAbsent(TypedKey, Factory)} */
+    public interface Factory<T> {
+        T create();
+    }
+
+    /** Computes the new value for {@link AppScope#getAndUpdate(TypedKey, Updater)} and related methods */
+    public interface Updater<T> {
+        T update(T current);
+    }
+
+    public static <T> void remove(String keyName, Class<T> keyClass) {
+        TypedKey<T> key = new TypedKey<T>(keyName, keyClass);
+        remove(key);
+    }
+
+    /**
+     * Saves the values of the {@link #WARM_RESTART} keys to the file. Call this when the app goes to
+     * the background, preferably from a background thread. The values of keys with providers are
+     * saved only if they were already created: an {@link AsyncInstanceProvider} must be loaded, and
+     * any other provider must have been read or written through AppScope.
+     *
+     * @param appVersion a snapshot is restored only by the same app version
+     */
+    public static void saveSnapshot(File file, int appVersion) throws IOException {
+        Map<String, Snapshot.Entry> entriesByName = new LinkedHashMap<>();
+        for (TypedKey<?> key : nonPersistentPrefs.keySet()) {
+            if (key.containsTag(WARM_RESTART)) addToSnapshot(entriesByName, key, getNonPersistent(key));
+        }
+        for (TypedKeyWithProvider<?> key : keysWithProviders) {
+            if (!key.containsTag(WARM_RESTART)) continue;
+            InstanceProvider<?> provider = key.getProvider();
+            if (hasValue(provider)) addToSnapshot(entriesByName, key, provider.get());
+        }
+        Snapshot.write(file, appVersion, entriesByName);
+    }
+
+    private static void addToSnapshot(Map<String, Snapshot.Entry> entriesByName, TypedKey<?> key, Object value) {
+        if (value == null) return;
+        String json = gson.toJson(value, key.getTypeOfValue());
+        entriesByName.put(key.getName(), new Snapshot.Entry(json, key.containsTag(SURVIVE_RESET)));
+    }
+
+    /**
+     * Loads a snapshot saved by {@link #saveSnapshot(File, int)}. The values are decoded lazily, on
+     * first access of each key, and only if the key has no value by then. A value that fails to
+     * decode is dropped, and the key is built the usual way.
+     *
+     * @param appVersion the snapshot is ignored if it was saved by a different app version
+     * @param maxAgeMillis the snapshot is ignored if it is older than this
+     * @return whether a usable snapshot was found
+     */
+    public static boolean restoreSnapshot(File file, int appVersion, long maxAgeMillis) {
+        Map<String, Snapshot.Entry> entriesByName = Snapshot.read(file, appVersion, maxAgeMillis);
+        pendingSnapshot.clear();
+        if (entriesByName == null) return false;
+        pendingSnapshot.putAll(entriesByName);
+        return true;
+    }
+
+    private static <T> void restoreFromSnapshot(TypedKey<T> key) {
+        if (!key.containsTag(WARM_RESTART)) return;
+        synchronized (lockFor(key)) {
+            Snapshot.Entry entry = pendingSnapshot.remove(key.getName());
+            if (entry == null) return;
+            String json = entry.json;
+            Tier tier = Tier.of(key);
+            if (tier == Tier.NON_PERSISTENT && !nonPersistentPrefs.containsKey(key)) {
+                T value = decodeSnapshotValue(key, json);
+                if (value != null) putLocked(key, value);
+            } else if (tier == Tier.PROVIDER) {
+                InstanceProvider<T> provider = ((TypedKeyWithProvider<T>) key).getProvider();
+                if (provider == null || hasValue(provider)) return;
+                T value = decodeSnapshotValue(key, json);
+                if (value == null) return;
+                if (!keysWithProviders.contains(key)) keysWithProviders.add((TypedKeyWithProvider<T>) key);
+                provider.update(value);
+                providerValueChanged(provider, value);
+                storeWritten(key);
+            }
+        }
+    }
+
+    /** @return the decoded value, or {@code null} if the JSON doesn't match the type of the key */
+    private static <T> T decodeSnapshotValue(TypedKey<T> key, String json) {
+        try {
+            return gson.fromJson(json, key.getTypeOfValue());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the values of the persistent keys of the registered {@link KeyCatalog} to the stream as
+     * JSON, one entry at a time. {@link #NON_PERSISTENT} keys and keys with providers are skipped.
+     * The stream is flushed but not closed.
+     * @return the number of values written
+     */
+    public static int exportTo(OutputStream out) throws IOException {
+        return ScopeTransfer.exportTo(gson, out, requireCatalog().keys());
+    }
+
+    /** Same as {@link #exportTo(OutputStream)}, but for the specified keys */
+    public static int exportTo(OutputStream out, TypedKey<?>... keys) throws IOException {
+        return ScopeTransfer.exportTo(gson, out, Arrays.asList(keys));
+    }
+
+    /**
+     * Reads values written by {@link #exportTo(OutputStream)} one entry at a time and puts them
+     * for the matching persistent keys of the registered {@link KeyCatalog}. Each value is written to
+     * the store its key's tags select. Entries for unknown keys are skipped.
+     * The stream is not closed.
+     * <p>
+     * The import is not atomic: if a value can't be decoded, the exception is thrown after the
+     * values of the earlier entries are already put.
+     * <p>
+     * The import is not batched either. Each entry is a separate {@code put}, so importing n values
+     * costs n SharedPreferences writes, since {@link Prefs} has no way to write several values of a
+     * store at once. Only the {@code put}s of unchanged values are skipped
+     * (see {@link #put(TypedKey, Object)}).
+     * @return the number of values imported
+     * @throws com.google.gson.JsonSyntaxException if a value doesn't match the type of its key
+     */
+    public static int importFrom(InputStream in) throws IOException {
+        return ScopeTransfer.importFrom(gson, in, requireCatalog().keys());
+    }
+
+    /** Same as {@link #importFrom(InputStream)}, but only for the specified keys */
+    public static int importFrom(InputStream in, TypedKey<?>... keys) throws IOException {
+        return ScopeTransfer.importFrom(gson, in, Arrays.asList(keys));
+    }
+
+    private static KeyCatalog requireCatalog() {
+        KeyCatalog c = catalog;
+        if (c == null) throw new IllegalStateException("No KeyCatalog registered");
+        return c;
+    }
+
+    public static void reset() {
+        reset(false);
+    }
+
+    private static synchronized void reset(boolean reset) {
+        for (TypedKeyWithProvider<?> key : keysWithProviders) {
+            if (reset || !key.containsTag(SURVIVE_RESET)) {
+                try {
+                    InstanceProvider<?> provider = key.getProvider();
+                    if (provider != null) {
+                        provider.update(null);
+                        providerValueChanged(provider, null);
+                    }
+                } catch (Exception ignored) {}
+            }
+        }
+        userPrefs.clear();
+        LruCache<TypedKey<?>, Object> persisted = persistedValues;
+        for (TypedKey<?> key : persisted.snapshot().keySet()) {
+            if (reset || !key.containsTag(SURVIVE_RESET)) persisted.remove(key);
+        }
+
+        List<TypedKey<?>> toBeRemoved = new ArrayList<>();
+        for (Map.Entry<TypedKey<?>, Object> entry : nonPersistentPrefs.entrySet()) {
+            TypedKey<?> key = entry.getKey();
+            if (!key.containsTag(SURVIVE_RESET)) {
+                toBeRemoved.add(key);
+            }
+        }
+        for (TypedKey<?> key : toBeRemoved) {
+            nonPersistentPrefs.remove(key);
+        }
+        hotCompactValues.evictAll();
+        if (reset) {
+            pendingSnapshot.clear();
+        } else { // like the live values, the restored values of SURVIVE_RESET keys are kept
+            for (Iterator<Snapshot.Entry> i = pendingSnapshot.values().iterator(); i.hasNext();) {
+                if (!i.next().surviveReset) i.remove();
+            }
+        }
+
+        // Stamp only after clearing, so that a reader that sees the new version can't have read an old value
+        long version = versionClock.incrementAndGet();
+        resetVersion = version;
+        if (reset) fullResetVersion = version;
+
+        // The reset stamp now covers the cleared keys, unless they were written again since
+        for (Map.Entry<TypedKey<?>, AtomicLong> entry : keyVersions.entrySet()) {
+            TypedKey<?> key = entry.getKey();
+            if (!reset && key.containsTag(SURVIVE_RESET)) continue;
+            synchronized (lockFor(key)) {
+                if (entry.getValue().get() <= version) keyVersions.remove(key, entry.getValue());
+            }
+        }
+    }
+
+    public static final class TestAccess {
+        /**
+         * initializes AppScope by clearing out any past settings. This is useful for tests
+         * to ensure AppScope side-effects from other test invocations are cleared out for
+         * this test.
+         *
+         * @param context the context to set while reinitializing AppScope
+         * @param gson the Gson instance to set while reinitializing AppScope
+         */
+        public static void init(Context context, Gson gson) {
+            AppScope.init(context, gson, DEFAULT_USER_PREFS_FILE, DEFAULT_APP_PREFS_FILE, 10);
+            reset();
+        }
+
+        public static void reset() {
+            AppScope.reset(true);
+            catalog = null;
+            frozenConfig = null;
+            nonPersistentPrefs.clear();
+            providersWithValues.clear();
+            persistedValues.evictAll();
+            absentKeys.clear();
+            userPrefs.clear();
+            appPrefs.clear();
+            skippedWrites.set(0);
+        }
+    }
+}
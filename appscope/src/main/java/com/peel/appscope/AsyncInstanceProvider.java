@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An {@link InstanceProvider} whose value is expensive to create. The value is created by
+ * {@link #load()} either in the background (see {@link AppScope#getAsync(com.peel.prefs.TypedKey)}
+ * and {@link AppScope#prefetch(com.peel.prefs.TypedKey...)}), or on the calling thread of {@link #get()}.
+ * Concurrent callers share a single in-flight load, and {@link #get()} blocks on it if one is
+ * already running.
+ *
+ * @param <T> the type whose instance is provided by this class
+ * @author Inderjeet Singh
+ */
+public abstract class AsyncInstanceProvider<T> implements InstanceProvider<T> {
+    private final Object lock = new Object();
+    private LoadTask inFlight; // guarded by lock
+    private volatile boolean loaded;
+    private volatile T value;
+
+    /**
+     * Creates the value. If this throws, the exception is propagated to all the waiting callers,
+     * and the next access tries to load again.
+     */
+    protected abstract T load() throws Exception;
+
+    public final boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return a future for the value. If the value isn't loaded and no load is in flight,
+     *   a load is started on the executor. Cancelling the future abandons the load, and the
+     *   next access starts a new one.
+     */
+    public final Future<T> getAsync(Executor executor) {
+        LoadTask task;
+        boolean start;
+        synchronized (lock) {
+            if (loaded) return completed(value);
+            start = inFlight == null;
+            if (start) inFlight = newLoadTask();
+            task = inFlight;
+        }
+        if (start) executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Returns the value, loading it on the calling thread or joining an in-flight load if needed.
+     * A load that is still queued on an executor is run here, so this doesn't wait on an executor
+     * that is busy or is running the caller.
+     */
+    @Override
+    public final T get() {
+        while (true) {
+            if (loaded) return value;
+            LoadTask task;
+            synchronized (lock) {
+                if (loaded) return value;
+                if (inFlight == null) inFlight = newLoadTask();
+                task = inFlight;
+            }
+            task.run(); // no-op if the load is already running or done
+            if (!task.isCancelled()) return join(task);
+            // cancelled through a future returned by getAsync(), which also cleared inFlight
+        }
+    }
+
+    /**
+     * Replaces the value. Any load that is in flight is not allowed to overwrite it. Updating to
+     * {@code null} discards the value, and the next access loads it again.
+     */
+    @Override
+    public void update(T value) {
+        synchronized (lock) {
+            this.value = value;
+            this.loaded = value != null;
+            this.inFlight = null;
+        }
+    }
+
+    private LoadTask newLoadTask() {
+        return new LoadTask(new Callable<T>() {
+            @Override public T call() throws Exception {
+                return load();
+            }
+        });
+    }
+
+    static <T> Future<T> completed(T value) {
+        FutureTask<T> future = new FutureTask<T>(new Runnable() {
+            @Override public void run() {}
+        }, value);
+        future.run();
+        return future;
+    }
+
+    static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private final class LoadTask extends FutureTask<T> {
+        LoadTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        protected void set(T result) {
+            synchronized (lock) {
+                if (inFlight == this) { // not superseded by update()
+                    value = result;
+                    loaded = true;
+                    inFlight = null;
+                }
+            }
+            super.set(result);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            synchronized (lock) {
+                if (inFlight == this) inFlight = null;
+            }
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                synchronized (lock) {
+                    if (inFlight == this) inFlight = null;
+                }
+            }
+        }
+    }
+}
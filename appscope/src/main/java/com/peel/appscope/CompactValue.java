@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+
+/**
+ * A value held in memory as gzipped JSON instead of as an object graph. Used for keys
+ * tagged with {@link AppScope#COMPACT}.
+ *
+ * @author Inderjeet Singh
+ */
+final class CompactValue {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] bytes;
+
+    private CompactValue(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    static CompactValue encode(Gson gson, Object value, Type type) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Writer writer = new OutputStreamWriter(new GZIPOutputStream(out), UTF_8);
+            gson.toJson(value, type, writer);
+            writer.close();
+            return new CompactValue(out.toByteArray());
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    <T> T decode(Gson gson, Type type) {
+        try {
+            Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(bytes)), UTF_8);
+            try {
+                return gson.fromJson(reader, type);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    int size() {
+        return bytes.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CompactValue && Arrays.equals(bytes, ((CompactValue) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+}
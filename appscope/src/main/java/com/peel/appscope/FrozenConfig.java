@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.peel.prefs.TypedKey;
+
+/**
+ * An immutable copy of the decoded values of {@link AppScope#SURVIVE_RESET} keys, indexed by the
+ * position of the key in a {@link KeyCatalog}. Reads need no locks and never touch the prefs.
+ * Changes are published as a new instance. See {@link AppScope#freezeConfig()}.
+ *
+ * @author Inderjeet Singh
+ */
+final class FrozenConfig {
+    /** Returned by {@link AppScope} lookups for keys that aren't frozen */
+    static final Object NOT_FROZEN = new Object();
+
+    private final KeyCatalog keys;
+    /** Slots by key name, so that a write through any equally named key updates the slot */
+    private final Map<String, Integer> slotsByName;
+    /** What {@link AppScope#get(TypedKey)} returns for the key: its value, or the default for an absent key */
+    private final Object[] values;
+    private final boolean[] present;
+
+    FrozenConfig(KeyCatalog keys, Object[] values, boolean[] present) {
+        this(keys, slotsByName(keys), values, present);
+    }
+
+    private FrozenConfig(KeyCatalog keys, Map<String, Integer> slotsByName, Object[] values, boolean[] present) {
+        this.keys = keys;
+        this.slotsByName = slotsByName;
+        this.values = values;
+        this.present = present;
+    }
+
+    private static Map<String, Integer> slotsByName(KeyCatalog keys) {
+        Map<String, Integer> slots = new HashMap<>(keys.size() * 2);
+        for (int i = 0; i < keys.size(); ++i) slots.put(keys.key(i).getName(), i);
+        return slots;
+    }
+
+    /** @return the slot of the key, or -1 if the key isn't frozen. Only the frozen instance of the key is found. */
+    int slotOf(TypedKey<?> key) {
+        return keys.idOf(key);
+    }
+
+    /** @return the slot of the key with the name, or -1 if it isn't frozen */
+    int slotOf(String name) {
+        Integer slot = slotsByName.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    TypedKey<?> key(int slot) {
+        return keys.key(slot);
+    }
+
+    Object value(int slot) {
+        return values[slot];
+    }
+
+    boolean isPresent(int slot) {
+        return present[slot];
+    }
+
+    FrozenConfig with(int slot, Object value, boolean isPresent) {
+        return edit().set(slot, value, isPresent).build();
+    }
+
+    /** @return an editor that collects changes to several slots, to publish them as one new instance */
+    Editor edit() {
+        return new Editor();
+    }
+
+    final class Editor {
+        private final Object[] valuesCopy = values.clone();
+        private final boolean[] presentCopy = present.clone();
+
+        Editor set(int slot, Object value, boolean isPresent) {
+            valuesCopy[slot] = value;
+            presentCopy[slot] = isPresent;
+            return this;
+        }
+
+        FrozenConfig build() {
+            return new FrozenConfig(keys, slotsByName, valuesCopy, presentCopy);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.peel.prefs.TypedKey;
+
+/**
+ * An immutable catalog of the keys of an app, typically declared once as a static constant next
+ * to the keys themselves. Each key gets an integer id (its position in the catalog). Register the
+ * catalog with {@link AppScope#register(KeyCatalog)} to name the keys that {@link AppScope#warmUp()},
+ * {@link AppScope#freezeConfig()} and the export and import work on.
+ *
+ * <p>Nothing about the keys is precomputed. Reads and writes route each key, catalogued or not, by its
+ * tags, and the values are held in the stores, which are keyed by the key. The ids index the slots
+ * of {@link AppScope#freezeConfig()}.
+ *
+ * <p>Keys are matched by identity, so always use the same key instances that were catalogued.
+ *
+ * @author Inderjeet Singh
+ */
+public final class KeyCatalog {
+    private final TypedKey<?>[] keys;
+    private final Map<TypedKey<?>, Integer> ids;
+
+    public KeyCatalog(TypedKey<?>... keys) {
+        this.keys = keys.clone();
+        Map<TypedKey<?>, Integer> ids = new IdentityHashMap<>(keys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            if (ids.put(keys[i], i) != null) throw new IllegalArgumentException(keys[i] + " is listed more than once");
+        }
+        this.ids = ids;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /** @return the id of the key, or -1 if the key is not in this catalog */
+    public int idOf(TypedKey<?> key) {
+        Integer id = ids.get(key);
+        return id == null ? -1 : id;
+    }
+
+    public TypedKey<?> key(int id) {
+        return keys[id];
+    }
+
+    public List<TypedKey<?>> keys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+}
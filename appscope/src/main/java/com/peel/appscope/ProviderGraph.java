@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.peel.prefs.TypedKey;
+
+/**
+ * Declares the dependencies among keys with providers so that they can be initialized in parallel
+ * with {@link AppScope#initialize(ProviderGraph)}. A provider is initialized only after all the
+ * providers it depends on.
+ *
+ * @author Inderjeet Singh
+ */
+public final class ProviderGraph {
+    private final Map<TypedKeyWithProvider<?>, Set<TypedKeyWithProvider<?>>> dependencies = new LinkedHashMap<>();
+
+    /**
+     * Adds the key to the graph.
+     * @param key the key whose provider needs to be initialized
+     * @param dependsOn the keys that must be initialized before this key. These are added to the graph as well.
+     * @return this graph, for chaining
+     */
+    public synchronized ProviderGraph add(TypedKeyWithProvider<?> key, TypedKeyWithProvider<?>... dependsOn) {
+        node(key).addAll(Arrays.asList(dependsOn));
+        for (TypedKeyWithProvider<?> dependency : dependsOn) node(dependency);
+        return this;
+    }
+
+    private Set<TypedKeyWithProvider<?>> node(TypedKeyWithProvider<?> key) {
+        Set<TypedKeyWithProvider<?>> set = dependencies.get(key);
+        if (set == null) {
+            set = new HashSet<>();
+            dependencies.put(key, set);
+        }
+        return set;
+    }
+
+    /**
+     * Registers every key with {@link AppScope} and initializes its provider on the executor.
+     * Blocks until all providers are initialized.
+     *
+     * @return the time (in nanoseconds) taken by each provider to initialize
+     * @throws IllegalArgumentException if the dependencies contain a cycle
+     * @throws IllegalStateException if a provider failed to initialize, or the executor rejected it.
+     *   The providers depending on it are not initialized.
+     */
+    synchronized Map<TypedKey<?>, Long> initialize(Executor executor) throws InterruptedException {
+        checkForCycles();
+        final Map<TypedKeyWithProvider<?>, List<TypedKeyWithProvider<?>>> dependents = new LinkedHashMap<>();
+        final Map<TypedKeyWithProvider<?>, AtomicInteger> pending = new LinkedHashMap<>();
+        for (Map.Entry<TypedKeyWithProvider<?>, Set<TypedKeyWithProvider<?>>> entry : dependencies.entrySet()) {
+            dependents.put(entry.getKey(), new ArrayList<TypedKeyWithProvider<?>>());
+            pending.put(entry.getKey(), new AtomicInteger(entry.getValue().size()));
+        }
+        for (Map.Entry<TypedKeyWithProvider<?>, Set<TypedKeyWithProvider<?>>> entry : dependencies.entrySet()) {
+            for (TypedKeyWithProvider<?> dependency : entry.getValue()) dependents.get(dependency).add(entry.getKey());
+        }
+
+        final Map<TypedKey<?>, Long> timings = new ConcurrentHashMap<>();
+        final Set<TypedKeyWithProvider<?>> failed = Collections.newSetFromMap(new ConcurrentHashMap<TypedKeyWithProvider<?>, Boolean>());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(dependencies.size());
+        final Executor exec = executor;
+        class InitTask implements Runnable {
+            private final TypedKeyWithProvider<?> key;
+            InitTask(TypedKeyWithProvider<?> key) {
+                this.key = key;
+            }
+            @Override public void run() {
+                try {
+                    if (Collections.disjoint(dependencies.get(key), failed)) {
+                        long start = System.nanoTime();
+                        AppScope.register(key);
+                        AppScope.get(key);
+                        timings.put(key, System.nanoTime() - start);
+                    } else {
+                        failed.add(key);
+                    }
+                } catch (Throwable t) {
+                    failed.add(key);
+                    failure.compareAndSet(null, t);
+                } finally {
+                    finished();
+                }
+            }
+            void schedule() {
+                try {
+                    exec.execute(this);
+                } catch (Throwable t) { // rejected: the key, and transitively its dependents, fail
+                    failed.add(key);
+                    failure.compareAndSet(null, t);
+                    finished();
+                }
+            }
+            /** Counts the key down, and schedules the dependents that were waiting only for it */
+            private void finished() {
+                done.countDown();
+                for (TypedKeyWithProvider<?> dependent : dependents.get(key)) {
+                    if (pending.get(dependent).decrementAndGet() == 0) new InitTask(dependent).schedule();
+                }
+            }
+        }
+        // Collected before scheduling any, since a running task may bring another key's count down to 0
+        List<TypedKeyWithProvider<?>> roots = new ArrayList<>();
+        for (Map.Entry<TypedKeyWithProvider<?>, AtomicInteger> entry : pending.entrySet()) {
+            if (entry.getValue().get() == 0) roots.add(entry.getKey());
+        }
+        for (TypedKeyWithProvider<?> root : roots) new InitTask(root).schedule();
+        done.await();
+        if (failure.get() != null) throw new IllegalStateException("Failed to initialize providers " + failed, failure.get());
+        return timings;
+    }
+
+    private void checkForCycles() {
+        Set<TypedKeyWithProvider<?>> visited = new HashSet<>();
+        List<TypedKeyWithProvider<?>> path = new ArrayList<>();
+        for (TypedKeyWithProvider<?> key : dependencies.keySet()) {
+            checkForCycles(key, visited, path);
+        }
+    }
+
+    private void checkForCycles(TypedKeyWithProvider<?> key, Set<TypedKeyWithProvider<?>> visited,
+            List<TypedKeyWithProvider<?>> path) {
+        int index = path.indexOf(key);
+        if (index >= 0) {
+            List<TypedKeyWithProvider<?>> cycle = new ArrayList<>(path.subList(index, path.size()));
+            cycle.add(key);
+            throw new IllegalArgumentException("Dependency cycle: " + cycle);
+        }
+        if (!visited.add(key)) return;
+        path.add(key);
+        for (TypedKeyWithProvider<?> dependency : dependencies.get(key)) {
+            checkForCycles(dependency, visited, path);
+        }
+        path.remove(path.size() - 1);
+    }
+}
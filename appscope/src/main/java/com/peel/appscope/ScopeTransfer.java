@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.peel.prefs.TypedKey;
+
+/**
+ * Streams the persistent contents of {@link AppScope} to and from JSON, one entry at a time:
+ * <pre>
+ * {"version":1,"entries":[{"name":"country","value":"US"}, ...]}
+ * </pre>
+ * The fields of an entry may be in any order. Unknown fields are skipped.
+ * See {@link AppScope#exportTo(OutputStream)} and {@link AppScope#importFrom(InputStream)}.
+ *
+ * @author Inderjeet Singh
+ */
+final class ScopeTransfer {
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static int exportTo(Gson gson, OutputStream out, List<TypedKey<?>> keys) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, UTF_8));
+        writer.beginObject();
+        writer.name("version").value(FORMAT_VERSION);
+        writer.name("entries").beginArray();
+        int count = 0;
+        for (TypedKey<?> key : keys) {
+            if (!isPersistent(key) || !AppScope.contains(key)) continue;
+            Object value = AppScope.get(key);
+            if (value == null) continue;
+            writer.beginObject();
+            writer.name("name").value(key.getName());
+            writer.name("value");
+            gson.toJson(value, key.getTypeOfValue(), writer);
+            writer.endObject();
+            ++count;
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush(); // the stream belongs to the caller, so don't close it
+        return count;
+    }
+
+    static int importFrom(Gson gson, InputStream in, List<TypedKey<?>> keys) throws IOException {
+        Map<String, TypedKey<?>> keysByName = new HashMap<>();
+        for (TypedKey<?> key : keys) {
+            if (isPersistent(key)) keysByName.put(key.getName(), key);
+        }
+        JsonReader reader = new JsonReader(new InputStreamReader(in, UTF_8));
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("version")) {
+                int version = reader.nextInt();
+                if (version != FORMAT_VERSION) throw new IOException("Unsupported format version " + version);
+            } else if (name.equals("entries")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (importEntry(gson, reader, keysByName)) ++count;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    private static boolean importEntry(Gson gson, JsonReader reader, Map<String, TypedKey<?>> keysByName) throws IOException {
+        String name = null;
+        JsonElement bufferedValue = null; // a value that came before the name
+        boolean imported = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals("name")) {
+                name = reader.nextString();
+            } else if (field.equals("value") && name == null) {
+                bufferedValue = gson.fromJson(reader, JsonElement.class);
+            } else if (field.equals("value")) {
+                TypedKey<?> key = keysByName.get(name);
+                if (key == null || reader.peek() == JsonToken.NULL) {
+                    // written by a different app version or for a key not being imported
+                    reader.skipValue();
+                } else {
+                    imported = put(key, gson.fromJson(reader, key.getTypeOfValue()));
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (name == null) throw new JsonSyntaxException("Entry without a name at " + reader.getPath());
+        TypedKey<?> key = keysByName.get(name);
+        if (key != null && bufferedValue != null && !bufferedValue.isJsonNull()) {
+            imported = put(key, gson.fromJson(bufferedValue, key.getTypeOfValue()));
+        }
+        return imported;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> boolean put(TypedKey<T> key, Object value) {
+        if (value == null) throw new JsonSyntaxException("Invalid value for " + key);
+        AppScope.put(key, (T) value);
+        return true;
+    }
+
+    /** Non-persistent keys and keys with providers are not exported or imported */
+    private static boolean isPersistent(TypedKey<?> key) {
+        Tier tier = Tier.of(key);
+        return tier == Tier.APP || tier == Tier.USER;
+    }
+
+    private ScopeTransfer() {} // Not instantiable
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes the warm-restart snapshot of {@link AppScope#WARM_RESTART} keys. The file is a
+ * gzipped binary stream of: a magic number, the format version, the app version, the time of the
+ * snapshot, and for each key its name, whether it survives {@link AppScope#reset()}, and its JSON value.
+ *
+ * @author Inderjeet Singh
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x41707053; // "AppS"
+    private static final int FORMAT_VERSION = 2;
+    /** Limits on what is read, so that a corrupt file can't make us allocate huge arrays */
+    private static final int MAX_ENTRIES = 1 << 16;
+    private static final int MAX_JSON_BYTES = 1 << 24;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The saved value of a key */
+    static final class Entry {
+        final String json;
+        /** Whether the key has {@link AppScope#SURVIVE_RESET}, so that a reset keeps the entry */
+        final boolean surviveReset;
+
+        Entry(String json, boolean surviveReset) {
+            this.json = json;
+            this.surviveReset = surviveReset;
+        }
+    }
+
+    static void write(File file, int appVersion, Map<String, Entry> entriesByName) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(appVersion);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(entriesByName.size());
+            for (Map.Entry<String, Entry> entry : entriesByName.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(entry.getValue().surviveReset);
+                byte[] json = entry.getValue().json.getBytes(UTF_8);
+                out.writeInt(json.length);
+                out.write(json);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            if (!file.delete() || !tmp.renameTo(file)) throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /**
+     * @return the entries by key name, or {@code null} if the file is missing, corrupt, written by
+     *   a different app version, or older than maxAgeMillis.
+     */
+    static Map<String, Entry> read(File file, int appVersion, long maxAgeMillis) {
+        if (!file.exists()) return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file))));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readInt() != appVersion) return null;
+                long age = System.currentTimeMillis() - in.readLong();
+                if (age < 0 || age > maxAgeMillis) return null;
+                int count = in.readInt();
+                if (count < 0 || count > MAX_ENTRIES) return null;
+                Map<String, Entry> entriesByName = new HashMap<>(count * 2);
+                for (int i = 0; i < count; ++i) {
+                    String name = in.readUTF();
+                    boolean surviveReset = in.readBoolean();
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_JSON_BYTES) return null;
+                    byte[] json = new byte[length];
+                    in.readFully(json);
+                    entriesByName.put(name, new Entry(new String(json, UTF_8), surviveReset));
+                }
+                return entriesByName;
+            } finally {
+                in.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null; // a corrupt snapshot is the same as no snapshot
+        }
+    }
+
+    private Snapshot() {} // Not instantiable
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import com.peel.prefs.TypedKey;
+
+/**
+ * The store that holds the value of a key in {@link AppScope}
+ *
+ * @author Inderjeet Singh
+ */
+enum Tier {
+    /** the value comes from the {@link InstanceProvider} of a {@link TypedKeyWithProvider} */
+    PROVIDER,
+    /** the value is held in memory only. See {@link AppScope#NON_PERSISTENT} */
+    NON_PERSISTENT,
+    /** the value is persisted in app prefs and survives {@link AppScope#reset()}. See {@link AppScope#SURVIVE_RESET} */
+    APP,
+    /** the value is persisted in user prefs */
+    USER;
+
+    static Tier of(TypedKey<?> key) {
+        if (key instanceof TypedKeyWithProvider) return PROVIDER;
+        if (key.containsTag(AppScope.NON_PERSISTENT)) return NON_PERSISTENT;
+        if (key.containsTag(AppScope.SURVIVE_RESET)) return APP;
+        return USER;
+    }
+}
@@ -18,6 +18,7 @@ package com.peel.appscope;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
@@ -56,7 +57,7 @@ public class AndroidFixtures {
     }
 
     private static SharedPreferences createMockSharedPreferences(Context context, final PrefsListener listener) {
-        final Map<String, Object> map = new HashMap<>();
+        final Map<String, Object> map = new ConcurrentHashMap<>();
         return new SharedPreferences() {
             @Override public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
             @Override public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
@@ -89,7 +90,7 @@ public class AndroidFixtures {
                 return get(key, defValue);
             }
             @Override public Map<String, ?> getAll() {
-                return map;
+                return new HashMap<>(map);
             }
             @Override public boolean contains(String key) {
                 if (listener != null) listener.onGet(key);
@@ -103,12 +104,12 @@ public class AndroidFixtures {
                         return this;
                     }
                     @Override public Editor putStringSet(String key, Set<String> values) {
-                        map.put(key, values);
+                        if (values == null) map.remove(key); else map.put(key, values);
                         if (listener != null) listener.onPut(key, values);
                         return this;
                     }
                     @Override public Editor putString(String key, String value) {
-                        map.put(key, value);
+                        if (value == null) map.remove(key); else map.put(key, value);
                         if (listener != null) listener.onPut(key, value);
                         return this;
                     }
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.peel.prefs.TypedKey;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link AppScope}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class AppScopeTest {
+
+    private Context context;
+    private static final Gson gson = new Gson();
+    private String keyGet;
+    private String keyPut;
+
+    @Before
+    public void setUp() {
+        keyGet = null;
+        context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onGet(String key) {
+                keyGet = key;
+            }
+            @Override public void onPut(String key, Object value) {
+                keyPut = key;
+            }
+        });
+        AppScope.TestAccess.init(context, gson);
+    }
+
+    @Test
+    public void booleanDefaultValueOnGet() {
+        TypedKey<Boolean> testKey = new TypedKey<>("testKey", Boolean.class, AppScope.NON_PERSISTENT);
+        AppScope.remove(testKey);
+        assertFalse(AppScope.get(testKey));
+        AppScope.put(testKey, true);
+        assertTrue(AppScope.get(testKey));
+        AppScope.remove(testKey);
+    }
+
+    @Test
+    public void testPut() throws Exception {
+        TypedKey<String> key = new TypedKey<>("userId", String.class, AppScope.NON_PERSISTENT);
+        assertNull(AppScope.get(key));
+        AppScope.put(key, "19999999999");
+        assertNotNull(AppScope.get(key));
+        assertEquals("19999999999", AppScope.get(key));
+    }
+
+    @Test
+    public void testPutWithKeyAndClass() throws Exception {
+        assertNull(AppScope.get("k2", String.class));
+        AppScope.put("k2", String.class, "19999999999");
+        assertEquals("k2", keyPut);
+        assertEquals("19999999999", AppScope.get("k2", String.class));
+        assertEquals("k2", keyGet);
+    }
+
+    @Test
+    public void testRegisterProvider() throws Exception {
+        TypedKeyWithProvider<String> key = new TypedKeyWithProvider<String>("key", String.class,
+                new InstanceProvider<String>() {
+            private String value = "a";
+            @Override public void update(String value) {
+                this.value = value;
+            }
+            @Override public String get() {
+                return value;
+            }
+        });
+        AppScope.register(key);
+        assertEquals("a", AppScope.get(key));
+        AppScope.put(key, "b");
+        assertEquals("b", AppScope.get(key));
+    }
+
+    @Test
+    public void testTestAccessReconfigure() throws Exception {
+        TypedKey<String> key = new TypedKey<>("userId", String.class, AppScope.NON_PERSISTENT);
+        AppScope.put(key, "a");
+        assertEquals("a", AppScope.get(key));
+        AppScope.TestAccess.init(context, gson);
+        assertFalse(AppScope.contains(key));
+    }
+
+    @Test
+    public void testReconfigureClearsPersistentProperties() throws Exception {
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        AppScope.put(key, "a");
+        assertEquals("a", AppScope.get(key));
+        AppScope.TestAccess.init(context, gson);
+        assertFalse(AppScope.contains(key));
+    }
+
+    @Test
+    public void testReconfigureClearsConfigProperties() throws Exception {
+        TypedKey<String> key = new TypedKey<>("userId", String.class, AppScope.SURVIVE_RESET);
+        AppScope.put(key, "a");
+        assertEquals("a", AppScope.get(key));
+        AppScope.TestAccess.init(context, gson);
+        assertFalse(AppScope.contains(key));
+    }
+
+    @Test
+    public void testPutSkipsUnchangedPersistentValue() throws Exception {
+        TypedKey<String> key = new TypedKey<>("country", String.class);
+        AppScope.put(key, "US");
+        assertEquals("country", keyPut);
+        keyPut = null;
+        AppScope.put(key, "US");
+        assertNull(keyPut); // not written again
+        assertEquals(1, AppScope.skippedWriteCount());
+        AppScope.put(key, "FR");
+        assertEquals("country", keyPut);
+        assertEquals("FR", AppScope.get(key));
+    }
+
+    @Test
+    public void testPutWritesMutatedValue() throws Exception {
+        TypedKey<List<String>> key = new TypedKey<>("favorites", new TypeToken<List<String>>() {});
+        AppScope.put(key, new ArrayList<>(Arrays.asList("a")));
+        List<String> favorites = AppScope.get(key);
+        favorites.add("b");
+        keyPut = null;
+        AppScope.put(key, favorites);
+        assertEquals("favorites", keyPut); // written again, though it is the same instance
+        AppScope.put(key, new ArrayList<>(favorites));
+        assertEquals(0, AppScope.skippedWriteCount());
+    }
+
+    @Test
+    public void testPutDoesNotCreateProviderValue() throws Exception {
+        final int[] builds = new int[1];
+        TypedKeyWithProvider<String> key = new TypedKeyWithProvider<String>("lazy", String.class,
+                new InstanceProvider<String>() {
+            private String value;
+            @Override public void update(String value) {
+                this.value = value;
+            }
+            @Override public String get() {
+                if (value == null) {
+                    ++builds[0];
+                    value = "built";
+                }
+                return value;
+            }
+        });
+        AppScope.put(key, "a");
+        AppScope.put(key, "a");
+        assertEquals(0, builds[0]);
+        assertEquals("a", AppScope.get(key));
+    }
+
+    @Test
+    public void testPutSkipsUnchangedNonPersistentValue() throws Exception {
+        TypedKey<String> key = new TypedKey<>("userId", String.class, AppScope.NON_PERSISTENT);
+        AppScope.put(key, "a");
+        AppScope.put(key, "a");
+        assertEquals(1, AppScope.skippedWriteCount());
+        AppScope.remove(key);
+        AppScope.put(key, "a");
+        assertEquals(1, AppScope.skippedWriteCount());
+        assertEquals("a", AppScope.get(key));
+    }
+
+    @Test
+    public void testMissesAreCached() throws Exception {
+        TypedKey<Boolean> flag = new TypedKey<>("flag", Boolean.class);
+        assertFalse(AppScope.get(flag));
+        assertFalse(AppScope.contains(flag));
+        keyGet = null;
+        assertFalse(AppScope.get(flag));
+        assertFalse(AppScope.contains(flag));
+        assertNull(keyGet); // prefs were not accessed
+
+        AppScope.put(flag, true);
+        assertTrue(AppScope.contains(flag));
+        assertTrue(AppScope.get(flag));
+        AppScope.remove(flag);
+        assertFalse(AppScope.contains(flag));
+    }
+
+    @Test
+    public void testMissesAreCachedForContains() throws Exception {
+        TypedKey<String> key = new TypedKey<>("name", String.class, AppScope.SURVIVE_RESET);
+        assertFalse(AppScope.contains(key));
+        keyGet = null;
+        assertFalse(AppScope.contains(key));
+        assertNull(keyGet);
+        assertNull(AppScope.get(key));
+        AppScope.put(key, "a");
+        assertEquals("a", AppScope.get(key));
+    }
+
+    @Test
+    public void testMissesOfCataloguedKeysAreCached() throws Exception {
+        TypedKey<String> key = new TypedKey<>("catalogued", String.class);
+        AppScope.register(new KeyCatalog(key));
+        assertNull(AppScope.get(key));
+        keyGet = null;
+        assertNull(AppScope.get(key));
+        assertFalse(AppScope.contains(key));
+        assertNull(keyGet);
+    }
+
+    @Test
+    public void testMissCacheIsBounded() throws Exception {
+        TypedKey<String> first = new TypedKey<>("dynamic0", String.class);
+        for (int i = 0; i < 1000; ++i) {
+            assertNull(AppScope.get(new TypedKey<>("dynamic" + i, String.class)));
+        }
+        keyGet = null;
+        assertNull(AppScope.get(first));
+        assertEquals("dynamic0", keyGet); // evicted, so looked up again
+    }
+
+    @Test
+    public void testVersion() throws Exception {
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        TypedKey<String> config = new TypedKey<>("config", String.class, AppScope.SURVIVE_RESET);
+        long v0 = AppScope.version(key);
+        AppScope.put(key, "a");
+        long v1 = AppScope.version(key);
+        assertTrue(v1 > v0);
+        AppScope.put(key, "a"); // unchanged
+        assertEquals(v1, AppScope.version(key));
+        AppScope.put(config, "b");
+        long configVersion = AppScope.version(config);
+        assertEquals(v1, AppScope.version(key));
+
+        AppScope.reset();
+        long v2 = AppScope.version(key);
+        assertTrue(v2 > v1);
+        assertEquals(configVersion, AppScope.version(config));
+        AppScope.remove(config);
+        assertTrue(AppScope.version(config) > configVersion);
+        assertEquals(v2, AppScope.version(key));
+    }
+
+    @Test
+    public void testVersionsOfRemovedKeysAreDropped() throws Exception {
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        TypedKey<String> config = new TypedKey<>("config", String.class, AppScope.SURVIVE_RESET);
+        for (int i = 0; i < 100; ++i) {
+            TypedKey<String> dynamic = new TypedKey<>("dynamic" + i, String.class);
+            AppScope.put(dynamic, "a");
+            AppScope.remove(dynamic);
+        }
+        assertEquals(0, AppScope.versionedKeyCount());
+
+        AppScope.put(key, "a");
+        long v1 = AppScope.version(key);
+        AppScope.remove(key);
+        long v2 = AppScope.version(key);
+        assertTrue(v2 > v1);
+        AppScope.put(key, "a");
+        assertTrue(AppScope.version(key) > v2);
+
+        AppScope.put(config, "b");
+        long configVersion = AppScope.version(config);
+        v1 = AppScope.version(key);
+        AppScope.reset();
+        assertEquals(1, AppScope.versionedKeyCount()); // only config survives the reset
+        assertTrue(AppScope.version(key) > v1);
+        assertEquals(configVersion, AppScope.version(config));
+    }
+}
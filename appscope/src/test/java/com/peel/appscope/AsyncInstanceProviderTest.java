@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link AsyncInstanceProvider}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class AsyncInstanceProviderTest {
+
+    @Before
+    public void setUp() {
+        AppScope.TestAccess.init(AndroidFixtures.createMockContext(), new Gson());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareSingleLoad() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        SlowProvider provider = new SlowProvider(latch);
+        TypedKeyWithProvider<String> key = new TypedKeyWithProvider<>("shared", String.class, provider);
+        Future<String> first = AppScope.getAsync(key);
+        Future<String> second = AppScope.getAsync(key);
+        assertSame(first, second);
+        assertFalse(provider.isLoaded());
+        latch.countDown();
+        assertEquals("value", first.get());
+        assertEquals("value", AppScope.get(key));
+        assertEquals(1, provider.loads.get());
+    }
+
+    @Test
+    public void testGetLoadsOnCallingThread() {
+        SlowProvider provider = new SlowProvider(new CountDownLatch(0));
+        TypedKeyWithProvider<String> key = new TypedKeyWithProvider<>("blocking", String.class, provider);
+        assertEquals("value", AppScope.get(key));
+        assertEquals("value", AppScope.get(key));
+        assertEquals(1, provider.loads.get());
+    }
+
+    @Test
+    public void testGetRunsQueuedLoad() throws Exception {
+        SlowProvider provider = new SlowProvider(new CountDownLatch(0));
+        Executor neverRuns = new Executor() {
+            @Override public void execute(Runnable command) {}
+        };
+        Future<String> future = provider.getAsync(neverRuns);
+        assertEquals("value", provider.get());
+        assertEquals("value", future.get());
+        assertEquals(1, provider.loads.get());
+    }
+
+    @Test
+    public void testCancelledLoadIsRestarted() throws Exception {
+        SlowProvider provider = new SlowProvider(new CountDownLatch(0));
+        Executor neverRuns = new Executor() {
+            @Override public void execute(Runnable command) {}
+        };
+        Future<String> cancelled = provider.getAsync(neverRuns);
+        assertTrue(cancelled.cancel(false));
+        Future<String> next = provider.getAsync(neverRuns);
+        assertNotSame(cancelled, next);
+        assertEquals("value", provider.get());
+        assertEquals("value", next.get());
+        assertEquals(1, provider.loads.get());
+    }
+
+    @Test
+    public void testFailuresPropagateAndAllowRetry() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        AsyncInstanceProvider<String> provider = new AsyncInstanceProvider<String>() {
+            @Override protected String load() throws Exception {
+                if (attempts.incrementAndGet() == 1) throw new IllegalStateException("network down");
+                return "value";
+            }
+        };
+        TypedKeyWithProvider<String> key = new TypedKeyWithProvider<>("flaky", String.class, provider);
+        try {
+            AppScope.getAsync(key).get();
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("value", AppScope.get(key));
+    }
+
+    @Test
+    public void testUpdateWinsOverInFlightLoad() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        SlowProvider provider = new SlowProvider(latch);
+        TypedKeyWithProvider<String> key = new TypedKeyWithProvider<>("updated", String.class, provider);
+        Future<String> future = AppScope.getAsync(key);
+        AppScope.put(key, "updated");
+        latch.countDown();
+        future.get();
+        assertEquals("updated", AppScope.get(key));
+    }
+
+    @Test
+    public void testResetDiscardsLoadedValue() {
+        SlowProvider provider = new SlowProvider(new CountDownLatch(0));
+        TypedKeyWithProvider<String> key = new TypedKeyWithProvider<>("resettable", String.class, provider);
+        AppScope.register(key);
+        AppScope.get(key);
+        AppScope.reset();
+        assertFalse(provider.isLoaded());
+        assertEquals("value", AppScope.get(key));
+        assertEquals(2, provider.loads.get());
+    }
+
+    private static final class SlowProvider extends AsyncInstanceProvider<String> {
+        private final CountDownLatch latch;
+        final AtomicInteger loads = new AtomicInteger();
+
+        SlowProvider(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        protected String load() throws Exception {
+            latch.await();
+            loads.incrementAndGet();
+            return "value";
+        }
+    }
+}
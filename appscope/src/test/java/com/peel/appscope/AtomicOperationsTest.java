@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static com.peel.appscope.AppScope.NON_PERSISTENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.peel.prefs.TypedKey;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for the atomic compound operations of {@link AppScope}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class AtomicOperationsTest {
+
+    @Before
+    public void setUp() {
+        AppScope.TestAccess.init(AndroidFixtures.createMockContext(), new Gson());
+    }
+
+    @Test
+    public void testComputeIfAbsent() {
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        final AtomicInteger calls = new AtomicInteger();
+        AppScope.Factory<String> factory = new AppScope.Factory<String>() {
+            @Override public String create() {
+                calls.incrementAndGet();
+                return "a";
+            }
+        };
+        assertEquals("a", AppScope.computeIfAbsent(key, factory));
+        assertEquals("a", AppScope.computeIfAbsent(key, factory));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testCompareAndSet() {
+        TypedKey<String> key = new TypedKey<>("key", String.class, NON_PERSISTENT);
+        assertTrue(AppScope.compareAndSet(key, null, "a"));
+        assertFalse(AppScope.compareAndSet(key, null, "b"));
+        assertFalse(AppScope.compareAndSet(key, "b", "c"));
+        assertTrue(AppScope.compareAndSet(key, "a", "c"));
+        assertEquals("c", AppScope.get(key));
+        assertTrue(AppScope.compareAndSet(key, "c", null));
+        assertFalse(AppScope.contains(key));
+    }
+
+    @Test
+    public void testGetAndUpdate() {
+        TypedKey<String> key = new TypedKey<>("key", String.class, AppScope.SURVIVE_RESET);
+        AppScope.Updater<String> append = new AppScope.Updater<String>() {
+            @Override public String update(String current) {
+                return current == null ? "a" : current + "a";
+            }
+        };
+        assertNull(AppScope.getAndUpdate(key, append));
+        assertEquals("a", AppScope.getAndUpdate(key, append));
+        assertEquals("aaa", AppScope.updateAndGet(key, append));
+    }
+
+    @Test
+    public void testConcurrentIncrements() throws Exception {
+        final TypedKey<Integer> counter = new TypedKey<>("counter", Integer.class, NON_PERSISTENT);
+        final TypedKey<Integer> persistedCounter = new TypedKey<>("persistedCounter", Integer.class);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            threads.add(new Thread() {
+                @Override public void run() {
+                    for (int j = 0; j < 250; ++j) {
+                        AppScope.increment(counter);
+                        AppScope.addAndGet(persistedCounter, 2);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        assertEquals(1000, (int) AppScope.get(counter));
+        assertEquals(2000, (int) AppScope.get(persistedCounter));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static com.peel.appscope.AppScope.COMPACT;
+import static com.peel.appscope.AppScope.NON_PERSISTENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.peel.prefs.TypedKey;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for keys tagged with {@link AppScope#COMPACT}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class CompactValueTest {
+    private static final Gson gson = new Gson();
+
+    @Before
+    public void setUp() {
+        AppScope.TestAccess.init(AndroidFixtures.createMockContext(), gson);
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) list.add("customer");
+        TypeToken<List<String>> type = new TypeToken<List<String>>() {};
+        CompactValue compact = CompactValue.encode(gson, list, type.getType());
+        assertTrue(compact.size() < gson.toJson(list).length());
+        assertEquals(list, compact.decode(gson, type.getType()));
+        assertEquals(compact, CompactValue.encode(gson, list, type.getType()));
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        TypedKey<List<String>> key = new TypedKey<>("customers", new TypeToken<List<String>>() {}, NON_PERSISTENT, COMPACT);
+        List<String> list = new ArrayList<>();
+        list.add("a");
+        AppScope.put(key, list);
+        assertEquals(list, AppScope.get(key));
+        list.add("b");
+        AppScope.put(key, list);
+        assertEquals(2, AppScope.get(key).size());
+        AppScope.remove(key);
+        assertFalse(AppScope.contains(key));
+    }
+
+    @Test
+    public void testUnchangedCompactValueIsSkipped() {
+        TypedKey<String> key = new TypedKey<>("name", String.class, NON_PERSISTENT, COMPACT);
+        AppScope.put(key, "a");
+        AppScope.put(key, "a");
+        assertEquals(1, AppScope.skippedWriteCount());
+        assertEquals("a", AppScope.get(key));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static com.peel.appscope.AppScope.SURVIVE_RESET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.peel.prefs.TypedKey;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link AppScope#freezeConfig()}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class FrozenConfigTest {
+    private static final TypedKey<String> COUNTRY = new TypedKey<>("country", String.class, SURVIVE_RESET);
+    private static final TypedKey<Integer> TIMEOUT = new TypedKey<>("timeout", Integer.class, SURVIVE_RESET);
+    private static final TypedKey<String> USER_ID = new TypedKey<>("userId", String.class);
+
+    private String keyGet;
+    private Object countryWhileTimeoutWritten;
+
+    @Before
+    public void setUp() {
+        Context context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onGet(String key) {
+                keyGet = key;
+            }
+            @Override public void onPut(String key, Object value) {
+                if (key.equals(TIMEOUT.getName())) countryWhileTimeoutWritten = AppScope.get(COUNTRY);
+            }
+        });
+        AppScope.TestAccess.init(context, new Gson());
+        AppScope.register(new KeyCatalog(COUNTRY, TIMEOUT, USER_ID));
+    }
+
+    @Test
+    public void testFrozenReadsDontTouchPrefs() {
+        AppScope.put(COUNTRY, "US");
+        AppScope.freezeConfig();
+        keyGet = null;
+        assertEquals("US", AppScope.get(COUNTRY));
+        assertTrue(AppScope.contains(COUNTRY));
+        assertNull(keyGet);
+    }
+
+    @Test
+    public void testWritesPublishNewFrozenValues() {
+        AppScope.freezeConfig();
+        assertFalse(AppScope.contains(TIMEOUT));
+        AppScope.put(TIMEOUT, 30);
+        assertEquals(30, (int) AppScope.get(TIMEOUT));
+        AppScope.put(COUNTRY, "IN");
+        assertEquals("IN", AppScope.get(COUNTRY));
+        AppScope.remove(COUNTRY);
+        assertFalse(AppScope.contains(COUNTRY));
+    }
+
+    @Test
+    public void testAbsentFrozenKeysDontTouchPrefs() {
+        TypedKey<Boolean> flag = new TypedKey<>("flag", Boolean.class, SURVIVE_RESET);
+        AppScope.freezeConfig(TIMEOUT, flag);
+        keyGet = null;
+        assertFalse(AppScope.contains(TIMEOUT));
+        assertNull(AppScope.get(TIMEOUT));
+        assertFalse(AppScope.contains(flag));
+        assertFalse(AppScope.get(flag));
+        assertNull(keyGet);
+    }
+
+    @Test
+    public void testEqualKeysUpdateFrozenValues() {
+        AppScope.put(COUNTRY, "US");
+        AppScope.freezeConfig();
+        AppScope.put(new TypedKey<>("country", String.class, SURVIVE_RESET), "IN");
+        assertEquals("IN", AppScope.get(COUNTRY));
+        AppScope.remove("country", String.class);
+        assertFalse(AppScope.contains(COUNTRY));
+        assertNull(AppScope.get(COUNTRY));
+    }
+
+    @Test
+    public void testRefreshPublishesOnce() {
+        AppScope.put(COUNTRY, "US");
+        AppScope.put(TIMEOUT, 10);
+        AppScope.freezeConfig();
+        Map<TypedKey<?>, Object> refreshed = new LinkedHashMap<>();
+        refreshed.put(COUNTRY, "IN");
+        refreshed.put(TIMEOUT, 30);
+        AppScope.refreshConfig(refreshed);
+        assertEquals("US", countryWhileTimeoutWritten); // not published before the end of the refresh
+        assertEquals("IN", AppScope.get(COUNTRY));
+        assertEquals(30, (int) AppScope.get(TIMEOUT));
+
+        refreshed.clear();
+        refreshed.put(COUNTRY, null);
+        AppScope.refreshConfig(refreshed);
+        assertFalse(AppScope.contains(COUNTRY));
+        keyGet = null;
+        assertNull(AppScope.get(COUNTRY));
+        assertNull(keyGet);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlyConfigKeysCanBeFrozen() {
+        AppScope.freezeConfig(COUNTRY, USER_ID);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static com.peel.appscope.AppScope.NON_PERSISTENT;
+import static com.peel.appscope.AppScope.SURVIVE_RESET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.peel.prefs.TypedKey;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link KeyCatalog}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class KeyCatalogTest {
+    private static final TypedKey<String> USER_ID = new TypedKey<>("userId", String.class);
+    private static final TypedKey<String> COUNTRY = new TypedKey<>("country", String.class, SURVIVE_RESET);
+    private static final TypedKey<Integer> SESSION = new TypedKey<>("session", Integer.class, NON_PERSISTENT);
+    private static final KeyCatalog CATALOG = new KeyCatalog(USER_ID, COUNTRY, SESSION);
+
+    @Before
+    public void setUp() {
+        AppScope.TestAccess.init(AndroidFixtures.createMockContext(), new Gson());
+        AppScope.register(CATALOG);
+    }
+
+    @Test
+    public void testDenseIds() {
+        assertEquals(3, CATALOG.size());
+        assertEquals(1, CATALOG.idOf(COUNTRY));
+        assertSame(SESSION, CATALOG.key(2));
+        assertEquals(-1, CATALOG.idOf(new TypedKey<>("country", String.class, SURVIVE_RESET)));
+    }
+
+    @Test
+    public void testTiers() {
+        assertEquals(Tier.USER, Tier.of(CATALOG.key(0)));
+        assertEquals(Tier.APP, Tier.of(CATALOG.key(1)));
+        assertEquals(Tier.NON_PERSISTENT, Tier.of(CATALOG.key(2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateKeysRejected() {
+        new KeyCatalog(USER_ID, USER_ID);
+    }
+
+    @Test
+    public void testCataloguedKeys() {
+        assertFalse(AppScope.contains(COUNTRY));
+        AppScope.put(USER_ID, "a");
+        AppScope.put(COUNTRY, "US");
+        AppScope.put(SESSION, 5);
+        assertEquals("a", AppScope.get(USER_ID));
+        assertEquals("US", AppScope.get(COUNTRY));
+        assertEquals(5, (int) AppScope.get(SESSION));
+        assertTrue(AppScope.contains(COUNTRY));
+        AppScope.reset();
+        assertFalse(AppScope.contains(USER_ID));
+        assertFalse(AppScope.contains(SESSION));
+        assertEquals("US", AppScope.get(COUNTRY));
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        Map<Type, Long> timings = AppScope.warmUpAsync().get();
+        assertEquals(2, timings.size()); // String and Integer
+        assertTrue(timings.containsKey(String.class));
+        TypedKey<List<String>> customers = new TypedKey<>("customers", new TypeToken<List<String>>() {});
+        timings = AppScope.warmUp(customers);
+        assertTrue(timings.containsKey(customers.getTypeOfValue()));
+    }
+}
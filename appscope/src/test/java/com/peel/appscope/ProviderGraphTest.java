@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.peel.prefs.TypedKey;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link ProviderGraph}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class ProviderGraphTest {
+    private final List<String> initOrder = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        AppScope.TestAccess.init(AndroidFixtures.createMockContext(), new Gson());
+    }
+
+    @Test
+    public void testDependenciesInitializeFirst() throws Exception {
+        TypedKeyWithProvider<String> config = key("config");
+        TypedKeyWithProvider<String> user = key("user");
+        TypedKeyWithProvider<String> feed = key("feed");
+        TypedKeyWithProvider<String> ads = key("ads");
+        ProviderGraph graph = new ProviderGraph()
+                .add(feed, config, user)
+                .add(user, config)
+                .add(ads);
+        Map<TypedKey<?>, Long> timings = AppScope.initialize(graph);
+        assertEquals(4, timings.size());
+        assertEquals(4, initOrder.size());
+        assertTrue(initOrder.indexOf("config") < initOrder.indexOf("user"));
+        assertTrue(initOrder.indexOf("user") < initOrder.indexOf("feed"));
+        assertEquals("feed", AppScope.get(feed));
+    }
+
+    @Test
+    public void testCycleIsDetected() throws Exception {
+        TypedKeyWithProvider<String> a = key("a");
+        TypedKeyWithProvider<String> b = key("b");
+        TypedKeyWithProvider<String> c = key("c");
+        ProviderGraph graph = new ProviderGraph().add(a, b).add(b, c).add(c, a);
+        try {
+            AppScope.initialize(graph);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertTrue(initOrder.isEmpty());
+        }
+    }
+
+    @Test
+    public void testFailureSkipsDependents() throws Exception {
+        TypedKeyWithProvider<String> broken = new TypedKeyWithProvider<>("broken", String.class,
+                new AsyncInstanceProvider<String>() {
+            @Override protected String load() {
+                throw new IllegalStateException("broken");
+            }
+        });
+        TypedKeyWithProvider<String> dependent = key("dependent");
+        TypedKeyWithProvider<String> independent = key("independent");
+        ProviderGraph graph = new ProviderGraph().add(dependent, broken).add(independent);
+        try {
+            AppScope.initialize(graph);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertFalse(initOrder.contains("dependent"));
+            assertTrue(initOrder.contains("independent"));
+        }
+    }
+
+    @Test
+    public void testRejectedProviderFailsItsDependents() throws Exception {
+        TypedKeyWithProvider<String> config = key("config");
+        TypedKeyWithProvider<String> user = key("user");
+        TypedKeyWithProvider<String> feed = key("feed");
+        ProviderGraph graph = new ProviderGraph().add(feed, user).add(user, config);
+        final AtomicInteger executed = new AtomicInteger();
+        Executor rejectsAfterFirst = new Executor() {
+            @Override public void execute(Runnable task) {
+                if (executed.incrementAndGet() > 1) throw new RejectedExecutionException();
+                task.run();
+            }
+        };
+        try {
+            AppScope.initialize(graph, rejectsAfterFirst); // would hang if the latch wasn't counted down
+            fail();
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+            assertEquals(Arrays.asList("config"), initOrder);
+        }
+    }
+
+    private TypedKeyWithProvider<String> key(final String name) {
+        return new TypedKeyWithProvider<>(name, String.class, new AsyncInstanceProvider<String>() {
+            @Override protected String load() {
+                initOrder.add(name);
+                return name;
+            }
+        });
+    }
+}
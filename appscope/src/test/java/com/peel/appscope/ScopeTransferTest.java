@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static com.peel.appscope.AppScope.NON_PERSISTENT;
+import static com.peel.appscope.AppScope.SURVIVE_RESET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import com.peel.prefs.TypedKey;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link AppScope#exportTo(java.io.OutputStream)} and {@link AppScope#importFrom(java.io.InputStream)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class ScopeTransferTest {
+    private static final Gson gson = new Gson();
+    private static final TypedKey<String> USER_ID = new TypedKey<>("userId", String.class);
+    private static final TypedKey<List<String>> FAVORITES = new TypedKey<>("favorites", new TypeToken<List<String>>() {});
+    private static final TypedKey<String> COUNTRY = new TypedKey<>("country", String.class, SURVIVE_RESET);
+    private static final TypedKey<String> SESSION = new TypedKey<>("session", String.class, NON_PERSISTENT);
+    private static final KeyCatalog CATALOG = new KeyCatalog(USER_ID, FAVORITES, COUNTRY, SESSION);
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = AndroidFixtures.createMockContext();
+        AppScope.TestAccess.init(context, gson);
+        AppScope.register(CATALOG);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        AppScope.put(USER_ID, "u1");
+        AppScope.put(FAVORITES, Arrays.asList("a", "b"));
+        AppScope.put(COUNTRY, "US");
+        AppScope.put(SESSION, "s1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, AppScope.exportTo(out));
+
+        AppScope.TestAccess.init(context, gson);
+        AppScope.register(CATALOG);
+        assertEquals(3, AppScope.importFrom(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals("u1", AppScope.get(USER_ID));
+        assertEquals(Arrays.asList("a", "b"), AppScope.get(FAVORITES));
+        assertEquals("US", AppScope.get(COUNTRY));
+        assertFalse(AppScope.contains(SESSION));
+
+        AppScope.reset(); // imported values went to the right stores
+        assertFalse(AppScope.contains(USER_ID));
+        assertEquals("US", AppScope.get(COUNTRY));
+    }
+
+    @Test
+    public void testUnknownEntriesAreSkipped() throws Exception {
+        String json = "{\"version\":1,\"entries\":["
+                + "{\"name\":\"removedKey\",\"value\":{\"a\":[1,2]}},"
+                + "{\"name\":\"country\",\"surviveReset\":true,\"value\":\"FR\"}],"
+                + "\"extra\":true}";
+        assertEquals(1, AppScope.importFrom(new ByteArrayInputStream(json.getBytes("UTF-8")), COUNTRY));
+        assertEquals("FR", AppScope.get(COUNTRY));
+    }
+
+    @Test
+    public void testValueBeforeName() throws Exception {
+        String json = "{\"entries\":[{\"value\":[\"x\"],\"name\":\"favorites\"}],\"version\":1}";
+        assertEquals(1, AppScope.importFrom(new ByteArrayInputStream(json.getBytes("UTF-8"))));
+        assertEquals(Arrays.asList("x"), AppScope.get(FAVORITES));
+    }
+
+    @Test
+    public void testBadValueLeavesEarlierEntriesImported() throws Exception {
+        String json = "{\"version\":1,\"entries\":["
+                + "{\"name\":\"country\",\"value\":\"FR\"},"
+                + "{\"name\":\"favorites\",\"value\":{\"not\":\"a list\"}}]}";
+        try {
+            AppScope.importFrom(new ByteArrayInputStream(json.getBytes("UTF-8")));
+            fail();
+        } catch (JsonSyntaxException expected) {
+            assertEquals("FR", AppScope.get(COUNTRY));
+            assertFalse(AppScope.contains(FAVORITES));
+        }
+    }
+}
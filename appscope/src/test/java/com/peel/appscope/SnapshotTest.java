@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.appscope;
+
+import static com.peel.appscope.AppScope.NON_PERSISTENT;
+import static com.peel.appscope.AppScope.SURVIVE_RESET;
+import static com.peel.appscope.AppScope.WARM_RESTART;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.peel.prefs.TypedKey;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for warm-restart snapshots of {@link AppScope}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class SnapshotTest {
+    private static final Gson gson = new Gson();
+    private Context context;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        context = AndroidFixtures.createMockContext();
+        AppScope.TestAccess.init(context, gson);
+        file = File.createTempFile("snapshot", ".bin");
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void testRestoreAfterProcessRestart() throws Exception {
+        TypedKey<String> session = new TypedKey<>("session", String.class, NON_PERSISTENT, WARM_RESTART);
+        TypedKey<String> transientKey = new TypedKey<>("transient", String.class, NON_PERSISTENT);
+        final AtomicInteger loads = new AtomicInteger();
+        TypedKeyWithProvider<String> feed = new TypedKeyWithProvider<>("feed", String.class,
+                new AsyncInstanceProvider<String>() {
+            @Override protected String load() {
+                return "feed" + loads.incrementAndGet();
+            }
+        }, NON_PERSISTENT, WARM_RESTART);
+        AppScope.put(session, "s1");
+        AppScope.put(transientKey, "t");
+        AppScope.register(feed);
+        assertEquals("feed1", AppScope.get(feed));
+        AppScope.saveSnapshot(file, 1);
+
+        AppScope.TestAccess.init(context, gson); // simulates process death
+        assertFalse(AppScope.contains(session));
+        assertTrue(AppScope.restoreSnapshot(file, 1, 60000));
+        assertEquals("s1", AppScope.get(session));
+        assertNull(AppScope.get(transientKey));
+        assertEquals("feed1", AppScope.get(feed));
+        assertEquals(1, loads.get()); // not rebuilt
+    }
+
+    @Test
+    public void testAsyncAccessUsesSnapshot() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        AsyncInstanceProvider<String> provider = new AsyncInstanceProvider<String>() {
+            @Override protected String load() {
+                return "news" + loads.incrementAndGet();
+            }
+        };
+        TypedKeyWithProvider<String> news = new TypedKeyWithProvider<>("news", String.class, provider, NON_PERSISTENT, WARM_RESTART);
+        AppScope.register(news);
+        AppScope.get(news);
+        AppScope.saveSnapshot(file, 1);
+
+        AppScope.TestAccess.init(context, gson); // simulates process death
+        assertTrue(AppScope.restoreSnapshot(file, 1, 60000));
+        AppScope.prefetch(news);
+        assertTrue(provider.isLoaded());
+        assertEquals("news1", AppScope.getAsync(news).get());
+        assertEquals(1, loads.get()); // not loaded again
+    }
+
+    @Test
+    public void testResetKeepsSnapshotValuesThatSurviveReset() throws Exception {
+        TypedKey<String> session = new TypedKey<>("session", String.class, NON_PERSISTENT, WARM_RESTART);
+        TypedKey<String> device = new TypedKey<>("device", String.class, NON_PERSISTENT, WARM_RESTART, SURVIVE_RESET);
+        AppScope.put(session, "s1");
+        AppScope.put(device, "d1");
+        AppScope.saveSnapshot(file, 1);
+
+        AppScope.TestAccess.init(context, gson); // simulates process death
+        assertTrue(AppScope.restoreSnapshot(file, 1, 60000));
+        AppScope.reset();
+        assertNull(AppScope.get(session));
+        assertEquals("d1", AppScope.get(device));
+    }
+
+    @Test
+    public void testLiveValuesWinOverSnapshot() throws Exception {
+        TypedKey<String> session = new TypedKey<>("session", String.class, NON_PERSISTENT, WARM_RESTART);
+        AppScope.put(session, "old");
+        AppScope.saveSnapshot(file, 1);
+        AppScope.TestAccess.init(context, gson);
+        AppScope.restoreSnapshot(file, 1, 60000);
+        AppScope.put(session, "new");
+        assertEquals("new", AppScope.get(session));
+    }
+
+    @Test
+    public void testVersionMismatchAndStaleSnapshotsAreIgnored() throws Exception {
+        TypedKey<String> session = new TypedKey<>("session", String.class, NON_PERSISTENT, WARM_RESTART);
+        AppScope.put(session, "s1");
+        AppScope.saveSnapshot(file, 1);
+        AppScope.TestAccess.init(context, gson);
+        assertFalse(AppScope.restoreSnapshot(file, 2, 60000));
+        assertFalse(AppScope.restoreSnapshot(file, 1, -1));
+        assertFalse(AppScope.restoreSnapshot(new File(file.getPath() + ".missing"), 1, 60000));
+        assertFalse(AppScope.contains(session));
+    }
+
+    @Test
+    public void testPlainProvidersAreNotBuiltBySnapshots() throws Exception {
+        CountingProvider saved = new CountingProvider();
+        TypedKeyWithProvider<String> built = new TypedKeyWithProvider<>("built", String.class, saved, NON_PERSISTENT, WARM_RESTART);
+        CountingProvider unused = new CountingProvider();
+        TypedKeyWithProvider<String> neverBuilt = new TypedKeyWithProvider<>("neverBuilt", String.class, unused, NON_PERSISTENT, WARM_RESTART);
+        AppScope.register(built);
+        AppScope.register(neverBuilt);
+        assertEquals("built1", AppScope.get(built));
+        AppScope.saveSnapshot(file, 1);
+        assertEquals(0, unused.builds);
+
+        AppScope.TestAccess.init(context, gson); // simulates process death
+        CountingProvider restored = new CountingProvider();
+        built = new TypedKeyWithProvider<>("built", String.class, restored, NON_PERSISTENT, WARM_RESTART);
+        assertTrue(AppScope.restoreSnapshot(file, 1, 60000));
+        assertEquals("built1", AppScope.get(built));
+        assertEquals(0, restored.builds);
+        unused = new CountingProvider();
+        neverBuilt = new TypedKeyWithProvider<>("neverBuilt", String.class, unused, NON_PERSISTENT, WARM_RESTART);
+        assertEquals("built1", AppScope.get(neverBuilt)); // not in the snapshot, so built the usual way
+        assertEquals(1, unused.builds);
+    }
+
+    @Test
+    public void testUndecodableValueFallsBackToRebuild() throws Exception {
+        TypedKey<String> session = new TypedKey<>("session", String.class, NON_PERSISTENT, WARM_RESTART);
+        AppScope.put(session, "s1");
+        AppScope.saveSnapshot(file, 1);
+        AppScope.TestAccess.init(context, gson);
+        assertTrue(AppScope.restoreSnapshot(file, 1, 60000));
+        TypedKeyWithProvider<Integer> mismatched = new TypedKeyWithProvider<>("session", Integer.class,
+                new InstanceProvider<Integer>() {
+            private Integer value;
+            @Override public Integer get() {
+                if (value == null) value = 42;
+                return value;
+            }
+            @Override public void update(Integer value) {
+                this.value = value;
+            }
+        }, NON_PERSISTENT, WARM_RESTART);
+        assertEquals(42, AppScope.get(mismatched).intValue()); // "s1" is not an Integer
+    }
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws Exception {
+        TypedKey<String> session = new TypedKey<>("session", String.class, NON_PERSISTENT, WARM_RESTART);
+        AppScope.put(session, "s1");
+        AppScope.saveSnapshot(file, 1);
+        byte[] data = gunzip(file);
+        int lengthOffset = 24 + 2 + "session".length() + 1; // header, then the name and flag of the first entry
+        ByteBuffer.wrap(data).putInt(lengthOffset, Integer.MAX_VALUE);
+        gzip(data, file);
+        AppScope.TestAccess.init(context, gson);
+        assertFalse(AppScope.restoreSnapshot(file, 1, 60000));
+        assertFalse(AppScope.contains(session));
+    }
+
+    private static byte[] gunzip(File file) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int count; (count = in.read(buffer)) != -1;) out.write(buffer, 0, count);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void gzip(byte[] data, File file) throws IOException {
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class CountingProvider implements InstanceProvider<String> {
+        private String value;
+        int builds;
+        @Override public String get() {
+            if (value == null) value = "built" + ++builds;
+            return value;
+        }
+        @Override public void update(String value) {
+            this.value = value;
+        }
+    }
+}